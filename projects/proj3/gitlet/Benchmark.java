@@ -0,0 +1,410 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/** Timings of gitlet's commands on synthetic repositories, printed as CSV
+ *  so that runs before and after a change can be compared.
+ *
+ *  Usage: java gitlet.Benchmark [NAME=VALUE,VALUE... ...], where each NAME
+ *  is one of the parameters below and the values given for it replace its
+ *  default list. A repository is made for every combination of values, in
+ *  a new temporary directory, by a separate JVM (gitlet's folders are
+ *  fixed by the working directory when the JVM starts, and each
+ *  combination should start with cold caches). The repository has FILES
+ *  files of about SIZE bytes each and a history of COMMITS commits on
+ *  master, each changing CHANGES files, followed by BRANCHES side
+ *  branches of a few commits each, forked from master, after which master
+ *  moves on by one commit so that merging a side branch is a true merge.
+ *  Then each of add, commit, log, find, status, checkout and merge is run
+ *  REPS times in that JVM. Last, two commits tracking TRACKED files each
+ *  are stored, one with a tree and one listing its files, as commits did
+ *  before trees, and load and load-flat time reading each of them with
+ *  empty caches and looking up one file, also REPS times. One CSV row is
+ *  printed per run, with its wall time in nanoseconds and the bytes
+ *  allocated by the thread running it (-1 where the JVM cannot tell).
+ *  Output of the commands themselves is thrown away.
+ *  @author Jacky Zhao
+ */
+public class Benchmark {
+    /** The parameters, with their default values. */
+    private static final String[][] DEFAULTS = {
+        {"commits", "100", "1000"},
+        {"files", "100", "1000"},
+        {"size", "1024"},
+        {"changes", "4"},
+        {"branches", "4"},
+        {"tracked", "100000"},
+        {"reps", "5"},
+    };
+    /** The columns of the output. */
+    private static final String HEADER =
+        "commits,files,size,changes,branches,tracked,op,rep,nanos,"
+        + "allocated_bytes";
+    /** Flag that makes a JVM measure one repository. */
+    private static final String WORKER = "--worker";
+    /** Bytes in a line of a synthetic file. */
+    private static final int LINE = 64;
+    /** Commits on each side branch. */
+    private static final int SIDE_COMMITS = 3;
+    /** Files in each directory of the commits measured by load. */
+    private static final int DIR_FILES = 100;
+
+    /** Runs the benchmark described by ARGS.
+     * @param args are the parameter settings. */
+    public static void main(String... args) {
+        if (args.length > 0 && args[0].equals(WORKER)) {
+            new Benchmark(parse(args, 1)).run();
+            return;
+        }
+        Map<String, List<Long>> params = parse(args, 0);
+        System.out.println(HEADER);
+        System.out.flush();
+        List<long[]> combos = new ArrayList<>();
+        combos.add(new long[0]);
+        for (String name : params.keySet()) {
+            List<long[]> next = new ArrayList<>();
+            for (long[] combo : combos) {
+                for (long value : params.get(name)) {
+                    long[] longer = Arrays.copyOf(combo, combo.length + 1);
+                    longer[combo.length] = value;
+                    next.add(longer);
+                }
+            }
+            combos = next;
+        }
+        for (long[] combo : combos) {
+            List<String> command = new ArrayList<>(List.of(
+                    javaCommand(), "-cp", classPath(),
+                    Benchmark.class.getName(), WORKER));
+            int i = 0;
+            for (String name : params.keySet()) {
+                command.add(name + "=" + combo[i]);
+                i += 1;
+            }
+            runWorker(command);
+        }
+    }
+
+    /** Returns the parameter values in ARGS, starting at FIRST, with the
+     *  defaults of those not given.
+     * @param args are NAME=VALUE,VALUE... settings.
+     * @param first is the index of the first setting. */
+    private static Map<String, List<Long>> parse(String[] args, int first) {
+        LinkedHashMap<String, List<Long>> result = new LinkedHashMap<>();
+        for (String[] param : DEFAULTS) {
+            List<Long> values = new ArrayList<>();
+            for (int k = 1; k < param.length; k += 1) {
+                values.add(Long.parseLong(param[k]));
+            }
+            result.put(param[0], values);
+        }
+        for (int i = first; i < args.length; i += 1) {
+            int eq = args[i].indexOf('=');
+            if (eq < 0 || !result.containsKey(args[i].substring(0, eq))) {
+                throw error("Unknown benchmark parameter: %s", args[i]);
+            }
+            List<Long> values = new ArrayList<>();
+            for (String v : args[i].substring(eq + 1).split(",")) {
+                values.add(Long.parseLong(v.trim()));
+            }
+            result.put(args[i].substring(0, eq), values);
+        }
+        return result;
+    }
+
+    /** Runs COMMAND, a worker JVM, in a new temporary directory, copying
+     *  its output to the standard output, and removes the directory.
+     * @param command is the command line. */
+    private static void runWorker(List<String> command) {
+        Path dir = null;
+        try {
+            dir = Files.createTempDirectory("gitlet-bench");
+            Process proc = new ProcessBuilder(command).directory(dir.toFile())
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                    proc.getInputStream(), StandardCharsets.UTF_8))) {
+                for (String line = in.readLine(); line != null;
+                     line = in.readLine()) {
+                    System.out.println(line);
+                    System.out.flush();
+                }
+            }
+            if (proc.waitFor() != 0) {
+                System.err.println("Benchmark failed: " + command);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot run benchmark: %s", excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (dir != null) {
+                delete(dir);
+            }
+        }
+    }
+
+    /** Removes the directory DIR and everything in it.
+     * @param dir is a temporary directory. */
+    private static void delete(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder())
+                .forEach(p -> p.toFile().delete());
+        } catch (IOException excp) {
+            System.err.println("Cannot remove " + dir);
+        }
+    }
+
+    /** Returns the path of the java launcher of this JVM. */
+    private static String javaCommand() {
+        return join(System.getProperty("java.home"), "bin", "java")
+            .getPath();
+    }
+
+    /** Returns the class path of this JVM with every entry made absolute,
+     *  so that it also works for a JVM started in another directory. */
+    private static String classPath() {
+        StringBuilder result = new StringBuilder();
+        for (String entry : System.getProperty("java.class.path")
+                 .split(File.pathSeparator)) {
+            if (result.length() > 0) {
+                result.append(File.pathSeparator);
+            }
+            result.append(new File(entry).getAbsolutePath());
+        }
+        return result.toString();
+    }
+
+    /** Number of commits on master. */
+    private final int _commits;
+    /** Number of files. */
+    private final int _files;
+    /** Approximate size of each file. */
+    private final int _size;
+    /** Number of files changed by each commit. */
+    private final int _changes;
+    /** Number of side branches. */
+    private final int _branches;
+    /** Number of files tracked by the commits measured by load. */
+    private final int _tracked;
+    /** Number of runs of each command. */
+    private final int _reps;
+    /** The settings, as the first columns of each row. */
+    private final String _prefix;
+    /** Where rows go. */
+    private final PrintStream _out = System.out;
+    /** Source of file contents. */
+    private final Random _random = new Random(0);
+    /** Version of each file, so every change makes new contents. */
+    private final int[] _versions;
+    /** The repository. */
+    private Gitlet _git;
+
+    /** A measurement of the repository described by PARAMS, which holds
+     *  a single value for each parameter.
+     * @param params are the parameters. */
+    private Benchmark(Map<String, List<Long>> params) {
+        _commits = (int) (long) params.get("commits").get(0);
+        _files = (int) (long) params.get("files").get(0);
+        _size = (int) (long) params.get("size").get(0);
+        _changes = (int) (long) params.get("changes").get(0);
+        _branches = (int) (long) params.get("branches").get(0);
+        _tracked = (int) (long) params.get("tracked").get(0);
+        _reps = (int) (long) params.get("reps").get(0);
+        _prefix = String.join(",", String.valueOf(_commits),
+                String.valueOf(_files), String.valueOf(_size),
+                String.valueOf(_changes), String.valueOf(_branches),
+                String.valueOf(_tracked));
+        _versions = new int[_files];
+    }
+
+    /** Builds the repository in the working directory and measures the
+     *  commands on it. */
+    private void run() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        generate();
+        for (int rep = 0; rep < _reps; rep += 1) {
+            String name = fileName(rep % _files);
+            change(rep % _files);
+            measure("add", rep, "add", name);
+            measure("commit", rep, "commit", "bench commit " + rep);
+        }
+        for (int rep = 0; rep < _reps; rep += 1) {
+            measure("log", rep, "log");
+            measure("find", rep, "find", "commit 1");
+            measure("status", rep, "status");
+        }
+        for (int rep = 0; rep < _reps && _branches > 0; rep += 1) {
+            measure("checkout", rep, "checkout", branch(rep % _branches));
+            measure("checkout", rep, "checkout", "master");
+        }
+        for (int rep = 0; rep < _reps && rep < _branches; rep += 1) {
+            measure("merge", rep, "merge", branch(rep));
+        }
+        measureLoads();
+        _out.flush();
+    }
+
+    /** Stores a commit tracking _tracked files, in directories of
+     *  DIR_FILES files, once with a tree and once listing the files, and
+     *  measures loading each and looking up its last file with empty
+     *  caches. */
+    private void measureLoads() {
+        TreeMap<String, String> files = new TreeMap<>();
+        String blob = sha1("benchmark blob");
+        String last = null;
+        for (int f = 0; f < _tracked; f += 1) {
+            last = "dir" + f / DIR_FILES + Tree.SEPARATOR + fileName(f);
+            files.put(last, blob);
+        }
+        String parent = Refs.read(join(Gitlet.BRANCHES, "master"));
+        Commit tree = new Commit("tracked", parent, Tree.apply(null, files));
+        CommitLoader.store(tree);
+        Date time = new Date(0);
+        String flat = sha1(new Commit(null, parent, null, time, "flat",
+                                      new HashMap<>(files)).encode());
+        CommitLoader.store(new Commit(flat, parent, null, time, "flat",
+                                      new HashMap<>(files)));
+        String path = last;
+        for (int rep = 0; rep < _reps && path != null; rep += 1) {
+            for (String[] op : new String[][] {{"load", tree.getHash()},
+                                                {"load-flat", flat}}) {
+                CommitLoader.CACHE.clear();
+                Tree.CACHE.clear();
+                measure(op[0], rep, () -> CommitLoader.load(op[1]).get(path));
+            }
+        }
+    }
+
+    /** Makes the repository: the files, the history on master and the
+     *  side branches. */
+    private void generate() {
+        command("init");
+        _git = new Gitlet();
+        for (int f = 0; f < _files; f += 1) {
+            change(f);
+            _git.add(fileName(f));
+        }
+        command("commit", "commit 0");
+        int next = 0;
+        for (int c = 1; c < _commits; c += 1) {
+            for (int k = 0; k < _changes; k += 1) {
+                change(next);
+                _git.add(fileName(next));
+                next = (next + 1) % _files;
+            }
+            command("commit", "commit " + c);
+        }
+        for (int b = 0; b < _branches; b += 1) {
+            command("branch", branch(b));
+            command("checkout", branch(b));
+            int f = _files - 1 - b % _files;
+            for (int c = 0; c < SIDE_COMMITS; c += 1) {
+                change(f);
+                command("add", fileName(f));
+                command("commit", branch(b) + " commit " + c);
+            }
+            command("checkout", "master");
+        }
+        if (_branches > 0) {
+            change(0);
+            command("add", fileName(0));
+            command("commit", "after branches");
+        }
+    }
+
+    /** Runs the command ARGS, recording its time and allocation as run REP
+     *  of OP.
+     * @param op is the name of the measurement.
+     * @param rep is the number of the run.
+     * @param args are the command and its operands. */
+    private void measure(String op, int rep, String... args) {
+        measure(op, rep, () -> command(args));
+    }
+
+    /** Runs ACTION, recording its time and allocation as run REP of OP.
+     * @param op is the name of the measurement.
+     * @param rep is the number of the run.
+     * @param action is what is measured. */
+    private void measure(String op, int rep, Runnable action) {
+        long allocated = allocated();
+        long start = System.nanoTime();
+        action.run();
+        long nanos = System.nanoTime() - start;
+        long after = allocated();
+        _out.println(_prefix + "," + op + "," + rep + "," + nanos + ","
+                     + (allocated < 0 ? -1 : after - allocated));
+    }
+
+    /** Runs the command ARGS against the repository.
+     * @param args are the command and its operands. */
+    private void command(String... args) {
+        Main.run(_git == null ? new Gitlet() : _git, args);
+    }
+
+    /** Gives file F new contents.
+     * @param f is a file number. */
+    private void change(int f) {
+        _versions[f] += 1;
+        StringBuilder text = new StringBuilder(_size + LINE);
+        text.append(fileName(f)).append(" version ").append(_versions[f])
+            .append('\n');
+        while (text.length() < _size) {
+            for (int i = 0; i < LINE - 1; i += 1) {
+                text.append((char) ('a' + _random.nextInt(26)));
+            }
+            text.append('\n');
+        }
+        writeContents(new File(fileName(f)), text.toString());
+    }
+
+    /** Returns the name of file F.
+     * @param f is a file number. */
+    private static String fileName(int f) {
+        return "file" + f + ".txt";
+    }
+
+    /** Returns the name of side branch B.
+     * @param b is a branch number. */
+    private static String branch(int b) {
+        return "side" + b;
+    }
+
+    /** Returns the bytes allocated so far by the current thread, or -1 if
+     *  the JVM does not count them. */
+    private static long allocated() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sun =
+                (com.sun.management.ThreadMXBean) bean;
+            if (sun.isThreadAllocatedMemorySupported()
+                && sun.isThreadAllocatedMemoryEnabled()) {
+                return sun.getThreadAllocatedBytes(
+                        Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
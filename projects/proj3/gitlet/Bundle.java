@@ -0,0 +1,281 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** The objects one repository sends another, written to a single file
+ *  that is read back as a stream. Which objects to send is settled by
+ *  asking the receiving object store about each object in turn, starting
+ *  from the commit wanted: a commit it has is not sent, nor are the
+ *  commits behind it, and likewise a tree it has is not sent, nor is
+ *  anything in that tree. This holds because a repository only gets an
+ *  object after everything the object names, so the work done depends on
+ *  the size of the change rather than of the history.
+ *
+ *  A bundle is a magic number followed by one record per object and a 0
+ *  byte. A record is the type of the object, its 20-byte hash and its
+ *  contents as a series of frames, each an int length and that many
+ *  bytes, ending with an empty frame, so that blobs are copied through
+ *  without being held in memory. Each commit comes after its parents and
+ *  after the blobs and trees it names that the receiver lacks, and each
+ *  tree after its blobs and subtrees, so objects are stored in the order
+ *  they are read.
+ *  @author Jacky Zhao
+ */
+class Bundle {
+    /** Marks the start of a bundle. */
+    private static final int MAGIC = 0x47424e31;
+    /** Ends the records. */
+    private static final int END = 0;
+
+    /** Writes to FILE the commit TIP of the object store FROM and all the
+     *  commits, trees and blobs it leads to that the store TO does not
+     *  have.
+     * @param from is the sending store.
+     * @param to is the receiving store.
+     * @param tip is the full hash of the commit wanted.
+     * @param file is where the bundle goes. */
+    static void write(ObjectStore from, ObjectStore to, String tip,
+                      File file) {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                    file.toPath()), IO_CHUNK))) {
+            out.writeInt(MAGIC);
+            Sender sender = new Sender(from, to, out);
+            for (Commit c : sender.missingCommits(tip)) {
+                if (c.treeHash() != null) {
+                    sender.sendTree(c.treeHash());
+                } else {
+                    for (String blob : c.getTracking().values()) {
+                        sender.sendBlob(blob);
+                    }
+                }
+                sender.send(ObjectStore.COMMIT, c.getHash());
+            }
+            out.writeByte(END);
+        } catch (IOException excp) {
+            throw error("Cannot write bundle: %s", excp.getMessage());
+        }
+    }
+
+    /** Stores the objects in the bundle FILE in the object store INTO,
+     *  using the file SCRATCH to receive blobs, and returns the hashes of
+     *  the commits received, parents first.
+     * @param file is the bundle.
+     * @param into is the receiving store.
+     * @param scratch is a temporary file. */
+    static List<String> read(File file, ObjectStore into, File scratch) {
+        ArrayList<String> commits = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file.toPath()),
+                                        IO_CHUNK))) {
+            if (in.readInt() != MAGIC) {
+                throw error("Corrupted bundle.");
+            }
+            byte[] raw = new byte[PackFile.ID_BYTES];
+            for (int type = in.readByte(); type != END;
+                 type = in.readByte()) {
+                in.readFully(raw);
+                String id = toHex(raw);
+                if (type == ObjectStore.BLOB) {
+                    try (OutputStream out = Files.newOutputStream(
+                            scratch.toPath())) {
+                        readFrames(in, out);
+                    }
+                    if (!sha1(scratch).equals(id)) {
+                        throw error("Corrupted bundle: blob %s.", id);
+                    }
+                    into.writeBlob(id, scratch);
+                    continue;
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                readFrames(in, out);
+                byte[] bytes = out.toByteArray();
+                if (!Codec.isJavaSerialized(bytes)
+                    && !sha1(bytes).equals(id)) {
+                    throw error("Corrupted bundle: object %s.", id);
+                }
+                into.write(type, id, bytes);
+                if (type == ObjectStore.COMMIT) {
+                    commits.add(id);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot read bundle: %s", excp.getMessage());
+        } finally {
+            scratch.delete();
+        }
+        return commits;
+    }
+
+    /** Copies the contents of one record from IN to OUT.
+     * @param in is the bundle, positioned at the first frame.
+     * @param out is where the contents go. */
+    private static void readFrames(DataInputStream in, OutputStream out)
+        throws IOException {
+        byte[] buf = new byte[IO_CHUNK];
+        for (int len = in.readInt(); len > 0; len = in.readInt()) {
+            while (len > 0) {
+                int n = in.read(buf, 0, Math.min(len, buf.length));
+                if (n < 0) {
+                    throw error("Truncated bundle.");
+                }
+                out.write(buf, 0, n);
+                len -= n;
+            }
+        }
+    }
+
+    /** The sending side of a transfer, which remembers what it has
+     *  already sent. */
+    private static class Sender {
+        /** The sending store. */
+        private final ObjectStore _from;
+        /** The receiving store. */
+        private final ObjectStore _to;
+        /** The bundle. */
+        private final DataOutputStream _out;
+        /** The contents of the current record, split into frames. */
+        private final OutputStream _frames;
+        /** Types and hashes of the objects sent so far. */
+        private final HashSet<String> _sent = new HashSet<>();
+
+        /** A sender of objects of FROM that TO lacks, to OUT.
+         * @param from is the sending store.
+         * @param to is the receiving store.
+         * @param out is the bundle. */
+        Sender(ObjectStore from, ObjectStore to, DataOutputStream out) {
+            _from = from;
+            _to = to;
+            _out = out;
+            _frames = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len)
+                    throws IOException {
+                    if (len > 0) {
+                        _out.writeInt(len);
+                        _out.write(b, off, len);
+                    }
+                }
+            };
+        }
+
+        /** Returns the commit TIP and its ancestors that the receiver
+         *  does not have, each after its parents.
+         * @param tip is the full hash of the commit wanted. */
+        List<Commit> missingCommits(String tip) {
+            ArrayList<Commit> result = new ArrayList<>();
+            HashMap<String, Commit> expanded = new HashMap<>();
+            HashSet<String> done = new HashSet<>();
+            ArrayDeque<String> work = new ArrayDeque<>();
+            if (!_to.contains(ObjectStore.COMMIT, tip)) {
+                work.push(tip);
+            }
+            while (!work.isEmpty()) {
+                String id = work.peek();
+                if (!expanded.containsKey(id)) {
+                    Commit c = load(id);
+                    expanded.put(id, c);
+                    for (String p : new String[] {c.getParentHash(),
+                                                  c.getMergeParentHash()}) {
+                        if (p != null && !expanded.containsKey(p)
+                            && !_to.contains(ObjectStore.COMMIT, p)) {
+                            work.push(p);
+                        }
+                    }
+                } else {
+                    work.pop();
+                    if (done.add(id)) {
+                        result.add(expanded.get(id));
+                    }
+                }
+            }
+            return result;
+        }
+
+        /** Sends the tree ID and what it holds, unless the receiver has it.
+         * @param id is the full hash of a tree. */
+        void sendTree(String id) throws IOException {
+            if (_sent.contains(ObjectStore.TREE + id)
+                || _to.contains(ObjectStore.TREE, id)) {
+                return;
+            }
+            Tree t = Tree.decode(read(ObjectStore.TREE, id));
+            for (String blob : t.files().values()) {
+                sendBlob(blob);
+            }
+            for (String dir : t.dirs().values()) {
+                sendTree(dir);
+            }
+            send(ObjectStore.TREE, id);
+        }
+
+        /** Sends the blob ID, unless the receiver has it.
+         * @param id is the full hash of a blob. */
+        void sendBlob(String id) throws IOException {
+            if (_sent.contains(ObjectStore.BLOB + id)
+                || _to.contains(ObjectStore.BLOB, id)) {
+                return;
+            }
+            header(ObjectStore.BLOB, id);
+            _from.copyBlob(id, Channels.newChannel(_frames));
+            _out.writeInt(0);
+        }
+
+        /** Sends the commit or tree ID of type TYPE.
+         * @param type is the type of the object.
+         * @param id is its full hash. */
+        void send(int type, String id) throws IOException {
+            header(type, id);
+            _frames.write(read(type, id));
+            _out.writeInt(0);
+        }
+
+        /** Starts the record of the object ID of type TYPE.
+         * @param type is the type of the object.
+         * @param id is its full hash. */
+        private void header(int type, String id) throws IOException {
+            _sent.add(type + id);
+            _out.writeByte(type);
+            _out.write(toBytes(id));
+        }
+
+        /** Returns the commit ID of the sending store.
+         * @param id is the full hash of a commit. */
+        private Commit load(String id) {
+            return CommitLoader.decode(id, read(ObjectStore.COMMIT, id));
+        }
+
+        /** Returns the contents of the object ID of type TYPE in the
+         *  sending store.
+         * @param type is the type of the object.
+         * @param id is its full hash. */
+        private byte[] read(int type, String id) {
+            byte[] bytes = _from.read(type, id);
+            if (bytes == null) {
+                throw error("Missing object %s.", id);
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import static gitlet.Utils.*;
+
+/** Writes the files of a commit to the working directory. Reading a blob
+ *  and writing a file mostly waits on the disk, so the files are written
+ *  by a pool of at most THREADS threads (unless set in the config, the
+ *  number of processors but at least MIN_THREADS), each of which first
+ *  checks, through the stat cache, whether the file already has the right
+ *  contents and leaves it alone if so. Files are handed out in order of
+ *  path, and when writes fail the one reported is the first in that order,
+ *  once every other write has finished, so that the outcome does not
+ *  depend on timing; the other failures are attached to it as suppressed
+ *  exceptions. With a single thread the files are written in turn by the
+ *  calling thread, with the same reporting.
+ *  @author Jacky Zhao
+ */
+class Checkout {
+    /** Config key of the largest number of threads writing files. */
+    static final String THREADS = "checkout.threads";
+    /** Smallest default number of threads, since the threads mostly wait
+     *  rather than compute. */
+    private static final int MIN_THREADS = 4;
+
+    /** The directory written to. */
+    private final File _dir;
+    /** Blob hashes of the files to write, by path. */
+    private final TreeMap<String, String> _files = new TreeMap<>();
+
+    /** A checkout into DIR.
+     * @param dir is the working directory. */
+    Checkout(File dir) {
+        _dir = dir;
+    }
+
+    /** Adds FILES, which maps paths to blob hashes, to the files to write,
+     *  and returns this checkout.
+     * @param files are the files. */
+    Checkout addAll(Map<String, String> files) {
+        _files.putAll(files);
+        return this;
+    }
+
+    /** Writes the files and saves the stat cache. */
+    void run() {
+        int threads = Math.min(_files.size(), threads(THREADS));
+        ExecutorService pool = threads <= 1 ? null
+            : Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "gitlet-checkout");
+                t.setDaemon(true);
+                return t;
+            });
+        List<Future<?>> results = new ArrayList<>(_files.size());
+        try {
+            for (Map.Entry<String, String> e : _files.entrySet()) {
+                Runnable task = () -> write(e.getKey(), e.getValue());
+                if (pool != null) {
+                    results.add(pool.submit(task));
+                } else {
+                    FutureTask<Void> done = new FutureTask<>(task, null);
+                    done.run();
+                    results.add(done);
+                }
+            }
+            RuntimeException failure = null;
+            for (Future<?> result : results) {
+                RuntimeException excp = outcome(result);
+                if (excp != null && failure == null) {
+                    failure = excp;
+                } else if (excp != null) {
+                    failure.addSuppressed(excp);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            Gitlet.STAT_CACHE.save();
+        }
+    }
+
+    /** Returns the number of threads set in the config under KEY, or by
+     *  default the number of processors but at least MIN_THREADS.
+     * @param key is a config key. */
+    static int threads(String key) {
+        return (int) Gitlet.CONFIG.getLong(key, Math.max(MIN_THREADS,
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** Writes the blob BLOB to the file PATH, unless it already holds
+     *  those contents.
+     * @param path is the path of the file.
+     * @param blob is the hash of its contents. */
+    private void write(String path, String blob) {
+        File file = join(_dir, path);
+        if (file.isFile()
+            && Gitlet.STAT_CACHE.hash(file, path).equals(blob)) {
+            return;
+        }
+        File parent = file.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        Gitlet.OBJECTS.copyBlob(blob, file);
+        Gitlet.STAT_CACHE.update(file, path, blob);
+    }
+
+    /** Waits for RESULT and returns the exception it failed with, or null.
+     * @param result is the result of one write. */
+    private static RuntimeException outcome(Future<?> result) {
+        try {
+            result.get();
+            return null;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return error("Interrupted while writing files.");
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                return (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            return error("%s", cause.getMessage());
+        }
+    }
+}
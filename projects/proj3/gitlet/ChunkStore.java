@@ -0,0 +1,210 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static gitlet.Utils.*;
+
+/** Blobs stored as lists of chunks. A blob's contents are cut into chunks
+ *  at points chosen by a rolling (gear) hash of the preceding bytes, so an
+ *  edit to a file only changes the chunks around the edit, and the other
+ *  chunks are shared with earlier versions. Each distinct chunk is stored
+ *  once, deflated, in chunks/H, where H is the hash of the chunk. The blob
+ *  itself is stored in manifests/B, where B is the hash of the blob, as the
+ *  binary hashes of its chunks in order.
+ *  @author Jacky Zhao
+ */
+class ChunkStore {
+    /** Smallest chunk, except at the end of a blob. */
+    private static final int MIN_CHUNK = 1 << 11;
+    /** Largest chunk. */
+    private static final int MAX_CHUNK = 1 << 16;
+    /** A chunk ends where the low bits of the rolling hash selected by this
+     *  mask are all 0, which makes chunks about 8 KiB on average. */
+    private static final long BOUNDARY_MASK = (1 << 13) - 1;
+    /** Seed of the gear table, fixed so that every repository cuts the
+     *  same contents at the same points. */
+    private static final long GEAR_SEED = 0x6769746c6574L;
+    /** Random values added into the rolling hash for each byte value. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random r = new Random(GEAR_SEED);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = r.nextLong();
+        }
+    }
+
+    /** Folder of the chunks. */
+    private final File _chunks;
+    /** Folder of the manifests. */
+    private final File _manifests;
+    /** Folder of the files being written. */
+    private final File _tmp;
+
+    /** A chunk store in the .gitlet folder ROOT.
+     * @param root is the .gitlet folder. */
+    ChunkStore(File root) {
+        _chunks = join(root, "chunks");
+        _manifests = join(root, "manifests");
+        _tmp = join(root, ObjectStore.TMP);
+    }
+
+    /** Returns true if the blob with hash ID is stored here.
+     * @param id is the full hash of the blob. */
+    boolean contains(String id) {
+        return join(_manifests, id).isFile();
+    }
+
+    /** Returns the hashes of all blobs stored here, or null if there are
+     *  none. */
+    List<String> ids() {
+        return plainFilenamesIn(_manifests);
+    }
+
+    /** Removes the blob ID, but not its chunks (see sweep).
+     * @param id is the full hash of the blob. */
+    void delete(String id) {
+        join(_manifests, id).delete();
+    }
+
+    /** Removes the chunks that no stored blob uses, and returns how many
+     *  were removed. The chunks in use are marked in a bitmap over the
+     *  sorted list of chunks. */
+    int sweep() {
+        List<String> chunks = plainFilenamesIn(_chunks);
+        List<String> blobs = ids();
+        if (chunks == null) {
+            return 0;
+        }
+        BitSet used = new BitSet(chunks.size());
+        byte[] key = new byte[PackFile.ID_BYTES];
+        for (String blob : blobs == null ? List.<String>of() : blobs) {
+            byte[] manifest = readContents(join(_manifests, blob));
+            for (int k = 0; k < manifest.length; k += key.length) {
+                System.arraycopy(manifest, k, key, 0, key.length);
+                int i = Collections.binarySearch(chunks, toHex(key));
+                if (i >= 0) {
+                    used.set(i);
+                }
+            }
+        }
+        int removed = 0;
+        for (int i = used.nextClearBit(0); i < chunks.size();
+             i = used.nextClearBit(i + 1)) {
+            join(_chunks, chunks.get(i)).delete();
+            removed += 1;
+        }
+        return removed;
+    }
+
+    /** Stores the contents of FILE as the blob ID, reading the file once
+     *  and writing only the chunks that are not already stored.
+     * @param id is the hash of the contents of FILE.
+     * @param file is a working file. */
+    void write(String id, File file) {
+        _chunks.mkdirs();
+        _manifests.mkdirs();
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        byte[] chunk = new byte[MAX_CHUNK];
+        try (InputStream in = new BufferedInputStream(
+                Files.newInputStream(file.toPath()), IO_CHUNK)) {
+            int len = 0;
+            long hash = 0;
+            int b;
+            while ((b = in.read()) >= 0) {
+                chunk[len] = (byte) b;
+                len += 1;
+                hash = (hash << 1) + GEAR[b];
+                if (len == MAX_CHUNK
+                    || (len >= MIN_CHUNK && (hash & BOUNDARY_MASK) == 0)) {
+                    manifest.writeBytes(toBytes(writeChunk(chunk, len)));
+                    len = 0;
+                    hash = 0;
+                }
+            }
+            if (len > 0) {
+                manifest.writeBytes(toBytes(writeChunk(chunk, len)));
+            }
+        } catch (IOException excp) {
+            throw error("Cannot read %s: %s", file.getName(),
+                    excp.getMessage());
+        }
+        writeAtomically(join(_manifests, id), _tmp, manifest.toByteArray());
+    }
+
+    /** Writes the contents of the blob with hash ID to OUT, inflating one
+     *  chunk at a time. A chunk that ends early, or inflates to more than
+     *  MAX_CHUNK bytes, is reported as corrupt.
+     * @param id is the full hash of the blob.
+     * @param out is where the contents go. */
+    void copy(String id, WritableByteChannel out) {
+        byte[] manifest = readContents(join(_manifests, id));
+        byte[] key = new byte[PackFile.ID_BYTES];
+        byte[] chunk = new byte[MAX_CHUNK];
+        Inflater inflater = new Inflater();
+        try {
+            for (int k = 0; k < manifest.length; k += key.length) {
+                System.arraycopy(manifest, k, key, 0, key.length);
+                inflater.reset();
+                inflater.setInput(readContents(join(_chunks, toHex(key))));
+                int len = 0;
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(chunk, len, chunk.length - len);
+                    if (n == 0 && (inflater.needsInput()
+                                   || inflater.needsDictionary()
+                                   || len == chunk.length)) {
+                        throw error("Corrupt chunk %s of blob %s.",
+                                    toHex(key), id);
+                    }
+                    len += n;
+                }
+                ByteBuffer buf = ByteBuffer.wrap(chunk, 0, len);
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+            }
+        } catch (IOException | DataFormatException excp) {
+            throw error("Cannot read blob %s: %s", id, excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Stores the first LEN bytes of CHUNK, deflated, unless a chunk with
+     *  the same contents is already stored, and returns their hash.
+     * @param chunk holds the contents of the chunk.
+     * @param len is the length of the chunk. */
+    private String writeChunk(byte[] chunk, int len) {
+        byte[] contents = Arrays.copyOf(chunk, len);
+        String hash = sha1(contents);
+        File f = join(_chunks, hash);
+        if (!f.exists()) {
+            Deflater deflater = new Deflater();
+            deflater.setInput(contents);
+            deflater.finish();
+            ByteArrayOutputStream packed = new ByteArrayOutputStream();
+            byte[] buf = new byte[IO_CHUNK];
+            while (!deflater.finished()) {
+                packed.write(buf, 0, deflater.deflate(buf));
+            }
+            deflater.end();
+            writeAtomically(f, _tmp, packed.toByteArray());
+        }
+        return hash;
+    }
+}
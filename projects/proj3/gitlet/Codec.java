@@ -0,0 +1,205 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static gitlet.Utils.*;
+
+/** The compact binary encoding of gitlet's own files. Each encoded file
+ *  starts with a tag byte saying what it holds and a format version byte.
+ *  Integers are written as varints (seven bits per byte, low bits first,
+ *  with the high bit set on all but the last byte), strings as a varint
+ *  length followed by UTF-8 bytes, and hashes as their 20 raw bytes.
+ *  Files written by java.io serialization start with the byte 0xAC, which
+ *  no tag uses, so both kinds can be told apart and read.
+ *  @author Jacky Zhao
+ */
+class Codec {
+    /** Tag of an encoded commit. */
+    static final byte COMMIT = 'c';
+    /** Tag of an encoded staging area. */
+    static final byte STAGE = 's';
+    /** Tag of an encoded tree. */
+    static final byte TREE = 't';
+    /** Tag of an encoded branch reference. */
+    static final byte REF = 'r';
+    /** Tag of encoded reachability bitmaps. */
+    static final byte BITMAPS = 'b';
+    /** Tag of an encoded journal. */
+    static final byte JOURNAL = 'j';
+    /** Current version of all encodings. */
+    static final byte VERSION = 1;
+    /** First byte of the output of java.io serialization. */
+    private static final byte JAVA_MAGIC = (byte) 0xac;
+    /** Bits of payload in each varint byte. */
+    private static final int SHIFT = 7;
+    /** Mask of the payload bits of a varint byte. */
+    private static final int LOW_BITS = 0x7f;
+    /** Bit marking that more varint bytes follow. */
+    private static final int MORE = 0x80;
+
+    /** Returns true if BYTES were written by java.io serialization rather
+     *  than by a Writer.
+     * @param bytes are the contents of a file. */
+    static boolean isJavaSerialized(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == JAVA_MAGIC;
+    }
+
+    /** Accumulates an encoding in a growing array. */
+    static class Writer {
+        /** The bytes written so far. */
+        private byte[] _buf = new byte[Byte.MAX_VALUE + 1];
+        /** Number of bytes written. */
+        private int _len;
+
+        /** A writer whose output starts with the tag TAG and the current
+         *  version.
+         * @param tag says what is being encoded. */
+        Writer(byte tag) {
+            writeByte(tag);
+            writeByte(VERSION);
+        }
+
+        /** Writes the byte B.
+         * @param b is the byte. */
+        void writeByte(int b) {
+            ensure(1);
+            _buf[_len] = (byte) b;
+            _len += 1;
+        }
+
+        /** Writes the non-negative number N as a varint.
+         * @param n is the number. */
+        void writeVarint(long n) {
+            while ((n & ~LOW_BITS) != 0) {
+                writeByte((int) (n & LOW_BITS) | MORE);
+                n >>>= SHIFT;
+            }
+            writeByte((int) n);
+        }
+
+        /** Writes the string S.
+         * @param s is the string. */
+        void writeString(String s) {
+            writeBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /** Writes BYTES, preceded by their number.
+         * @param bytes are the bytes. */
+        void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, _buf, _len, bytes.length);
+            _len += bytes.length;
+        }
+
+        /** Writes the full hash ID as raw bytes.
+         * @param id is a 40-digit hash. */
+        void writeId(String id) {
+            ensure(PackFile.ID_BYTES);
+            for (int i = 0; i < PackFile.ID_BYTES; i += 1) {
+                _buf[_len + i] = (byte) Integer.parseInt(
+                        id.substring(2 * i, 2 * i + 2), 16);
+            }
+            _len += PackFile.ID_BYTES;
+        }
+
+        /** Returns the encoding. */
+        byte[] toByteArray() {
+            return Arrays.copyOf(_buf, _len);
+        }
+
+        /** Makes room for N more bytes.
+         * @param n is the number of bytes. */
+        private void ensure(int n) {
+            if (_len + n > _buf.length) {
+                _buf = Arrays.copyOf(_buf, Math.max(2 * _buf.length,
+                                                    _len + n));
+            }
+        }
+    }
+
+    /** Reads back an encoding made by a Writer. */
+    static class Reader {
+        /** The encoding. */
+        private final byte[] _buf;
+        /** Position of the next byte to read. */
+        private int _pos;
+
+        /** A reader of BYTES, which must hold an encoding with tag TAG
+         *  in the current version.
+         * @param bytes is the encoding.
+         * @param tag says what should be encoded. */
+        Reader(byte[] bytes, byte tag) {
+            _buf = bytes;
+            if (bytes.length < 2 || bytes[0] != tag) {
+                throw error("Corrupted gitlet file.");
+            } else if (bytes[1] != VERSION) {
+                throw error("Unknown gitlet file version %d.", bytes[1]);
+            }
+            _pos = 2;
+        }
+
+        /** Returns the next byte. */
+        int readByte() {
+            if (_pos >= _buf.length) {
+                throw error("Truncated gitlet file.");
+            }
+            int b = _buf[_pos] & 0xff;
+            _pos += 1;
+            return b;
+        }
+
+        /** Returns the next varint. */
+        long readVarint() {
+            long result = 0;
+            for (int shift = 0;; shift += SHIFT) {
+                int b = readByte();
+                result |= (long) (b & LOW_BITS) << shift;
+                if ((b & MORE) == 0) {
+                    return result;
+                }
+            }
+        }
+
+        /** Returns the next string. */
+        String readString() {
+            return new String(readBytes(), StandardCharsets.UTF_8);
+        }
+
+        /** Returns the next bytes written by writeBytes. */
+        byte[] readBytes() {
+            int len = (int) readVarint();
+            if (len < 0 || _pos + len > _buf.length) {
+                throw error("Truncated gitlet file.");
+            }
+            byte[] bytes = Arrays.copyOfRange(_buf, _pos, _pos + len);
+            _pos += len;
+            return bytes;
+        }
+
+        /** Returns true if every byte has been read. */
+        boolean atEnd() {
+            return _pos == _buf.length;
+        }
+
+        /** Checks that every byte has been read, since bytes left over
+         *  mean the file is not what it was taken to be. */
+        void finish() {
+            if (!atEnd()) {
+                throw error("Corrupted gitlet file.");
+            }
+        }
+
+        /** Returns the next hash. */
+        String readId() {
+            if (_pos + PackFile.ID_BYTES > _buf.length) {
+                throw error("Truncated gitlet file.");
+            }
+            byte[] id = Arrays.copyOfRange(_buf, _pos,
+                                           _pos + PackFile.ID_BYTES);
+            _pos += PackFile.ID_BYTES;
+            return toHex(id);
+        }
+    }
+}
@@ -5,6 +5,8 @@ import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 import static gitlet.Utils.*;
 
@@ -12,37 +14,85 @@ import static gitlet.Utils.*;
  *  @author Jacky Zhao
  */
 public class Commit implements Serializable {
+    /** Fixed so that the on-disk format does not depend on the methods. */
+    private static final long serialVersionUID = 2L;
+    /** Length of the abbreviated ids printed for merge parents. */
+    private static final int SHORT_ID = 7;
+    /** Flag in the encoding marking that there is a parent. */
+    private static final int HAS_PARENT = 1;
+    /** Flag in the encoding marking that there is a merged-in parent. */
+    private static final int HAS_MERGE_PARENT = 2;
+    /** Flag in the encoding marking that the files are given by a tree
+     *  rather than listed. */
+    private static final int HAS_TREE = 4;
+
     /** The name. */
     private String hash;
     /** The parent hash. */
-    private Commit parent;
+    private String parent;
+    /** The hash of the merged-in parent, or null if this is not a merge. */
+    private String mergeParent;
     /** The date and time of the commit. */
     private Date time;
     /** The log message. */
     private String message;
-    /** Keeps track of the Commit based on the hash name. */
+    /** Keeps track of the Commit based on the hash name. Only commits
+     *  written before there were trees have it; for the others it is null
+     *  and the files are read from the tree. */
     private HashMap<String, String> tracking;
-    /** Checks if the commit has a conflict with merge before checkout. */
-    private boolean conflicted = false;
+    /** The hash of the tree of tracked files, or null for commits written
+     *  before there were trees, which list their files instead. */
+    private String tree;
 
     /** Initializes a new commit.
      *
      * @param msg is the message of the commit.
      * @param pHash is the hash of the parent.
-     * @param files is the Hashmap of the commits.
+     * @param treeHash is the hash of the tree of tracked files.
+     * */
+    public Commit(String msg, String pHash, String treeHash) {
+        this(msg, pHash, null, treeHash);
+    }
+
+    /** Initializes a new commit, which is a merge commit if MHASH is not null.
+     *
+     * @param msg is the message of the commit.
+     * @param pHash is the hash of the parent.
+     * @param mHash is the hash of the merged-in parent.
+     * @param treeHash is the hash of the tree of tracked files.
      * */
-    public Commit(String msg, Commit pHash, HashMap<String, String> files) {
+    public Commit(String msg, String pHash, String mHash, String treeHash) {
         if (pHash == null) {
             message = "initial commit";
-            tracking = new HashMap<>();
             time = new Date(0);
         } else {
             message = msg;
             parent = pHash;
+            mergeParent = mHash;
             time = new Date();
-            tracking = files;
         }
-        hash = sha1(serialize(this));
+        tree = treeHash;
+        hash = sha1(encode());
+    }
+
+    /** Initializes a commit with an already known HASH, as when reading a
+     *  commit or converting a commit written in an older format.
+     *
+     * @param hash is the name of the commit.
+     * @param pHash is the hash of the parent.
+     * @param mHash is the hash of the merged-in parent.
+     * @param time is the date and time of the commit.
+     * @param msg is the message of the commit.
+     * @param files is the Hashmap of the commits.
+     * */
+    Commit(String hash, String pHash, String mHash, Date time, String msg,
+           HashMap<String, String> files) {
+        this.hash = hash;
+        this.parent = pHash;
+        this.mergeParent = mHash;
+        this.time = time;
+        this.message = msg;
+        this.tracking = files;
     }
 
     /** Returns the message of the commit. */
@@ -60,56 +110,146 @@ public class Commit implements Serializable {
         return time;
     }
 
-    /** Returns the parent of the commit. */
+    /** Returns the parent of the commit, loading it from disk, or null if
+     *  this is the initial commit. */
     public Commit getParent() {
+        if (parent == null) {
+            return null;
+        }
+        return CommitLoader.load(parent);
+    }
+
+    /** Returns the hash of the parent, or null for the initial commit. */
+    public String getParentHash() {
         return parent;
     }
 
-    /** Returns whether there's a merge conflict.
+    /** Returns the hash of the merged-in parent, or null if this commit is
+     *  not a merge. */
+    public String getMergeParentHash() {
+        return mergeParent;
+    }
+
+    /** Replaces the files of this commit in the working directory DIR with
+     * those of the commit N. Returns false, after printing why, if that
+     * would overwrite a file that this commit does not track. Only the
+     * paths where the trees of the two commits differ are checked and
+     * removed; the files of N are written by a Checkout, which leaves
+     * alone those that already hold the right contents.
      *
      * @param dir is the directory.
-     * @param n is the hashmap of the new commit.
+     * @param n is the new commit.
      * */
-    public void conflicted(File dir, HashMap<String, String> n) {
-        File[] files = dir.listFiles();
-        HashMap<String, String> c = getTracking();
-        for (File f: files) {
-            String name = f.getName();
-            if (!c.containsKey(name) && n.containsKey(name)) {
+    public boolean conflicted(File dir, Commit n) {
+        TreeMap<String, String[]> changed = Tree.diff(getTree(), n.getTree());
+        for (Map.Entry<String, String[]> e : changed.entrySet()) {
+            if (e.getValue()[0] == null && e.getValue()[1] != null
+                && join(dir, e.getKey()).exists()) {
                 System.out.println("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
-                return;
+                return false;
             }
         }
-        for (File f: files) {
-            String name = f.getName();
-            if (!n.containsKey(name) && c.containsKey(name)) {
-                restrictedDelete(f);
+        for (Map.Entry<String, String[]> e : changed.entrySet()) {
+            if (e.getValue()[1] == null) {
+                restrictedDelete(join(dir, e.getKey()));
             }
         }
 
-        for (String f: n.keySet()) {
-            String blob = dir.getPath() + "/.gitlet/blobs/" + n.get(f);
-            writeContents(new File(f), readContents(new File(blob)));
-        }
+        new Checkout(dir).addAll(n.getTracking()).run();
+        return true;
     }
 
-    /** Returns the list of tracked files. */
+    /** Returns the list of tracked files. For commits with a tree, it is
+     *  read from the tree on each call rather than kept, since commits are
+     *  shared through the CommitLoader cache, which weighs them by the size
+     *  of their encoding. */
     public HashMap<String, String> getTracking() {
+        if (tracking == null) {
+            return Tree.flatten(tree);
+        }
         return tracking;
     }
 
-    /** Sets the parent of the commit.
-     * @param pHash is the hash of the parent. */
-    public void setParent(Commit pHash) {
-        parent = pHash;
+    /** Returns the hash of the blob tracked as NAME, or null if NAME is not
+     *  tracked. Only the trees along the path are read.
+     * @param name is the name of a file. */
+    public String get(String name) {
+        if (tracking != null) {
+            return tracking.get(name);
+        }
+        return Tree.get(tree, name);
+    }
+
+    /** Returns the hash of the tree of tracked files. For commits written
+     *  before there were trees, the tree is built from the list of files
+     *  and stored the first time it is asked for. */
+    public String getTree() {
+        if (tree == null) {
+            tree = Tree.apply(null, new TreeMap<>(tracking));
+        }
+        return tree;
+    }
+
+    /** Returns the hash of the tree of tracked files, or null for commits
+     *  written before there were trees, without building one. */
+    String treeHash() {
+        return tree;
     }
 
-    /** Sets the tracked files of the commit.
-     * @param newTracking is where files are being tracked in the commit.
-     */
-    public void setTracking(HashMap<String, String> newTracking) {
-        tracking = newTracking;
+    /** Returns the Codec encoding of this commit, which is what its hash is
+     *  computed from. Commits without a tree list their tracked files in
+     *  order of name, so equal commits have equal encodings. */
+    byte[] encode() {
+        Codec.Writer out = new Codec.Writer(Codec.COMMIT);
+        int flags = (parent == null ? 0 : HAS_PARENT)
+            | (mergeParent == null ? 0 : HAS_MERGE_PARENT)
+            | (tree == null ? 0 : HAS_TREE);
+        out.writeByte(flags);
+        if (parent != null) {
+            out.writeId(parent);
+        }
+        if (mergeParent != null) {
+            out.writeId(mergeParent);
+        }
+        out.writeVarint(time.getTime());
+        out.writeString(message);
+        if (tree != null) {
+            out.writeId(tree);
+            return out.toByteArray();
+        }
+        out.writeVarint(tracking.size());
+        for (Map.Entry<String, String> e : new TreeMap<>(tracking).entrySet()) {
+            out.writeString(e.getKey());
+            out.writeId(e.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the commit named HASH whose Codec encoding is BYTES.
+     * @param hash is the name of the commit.
+     * @param bytes is its encoding. */
+    static Commit decode(String hash, byte[] bytes) {
+        Codec.Reader in = new Codec.Reader(bytes, Codec.COMMIT);
+        int flags = in.readByte();
+        String pHash = (flags & HAS_PARENT) == 0 ? null : in.readId();
+        String mHash = (flags & HAS_MERGE_PARENT) == 0 ? null : in.readId();
+        Date time = new Date(in.readVarint());
+        String msg = in.readString();
+        if ((flags & HAS_TREE) != 0) {
+            Commit result = new Commit(hash, pHash, mHash, time, msg, null);
+            result.tree = in.readId();
+            in.finish();
+            return result;
+        }
+        int n = (int) in.readVarint();
+        HashMap<String, String> files = new HashMap<>(2 * n);
+        for (int i = 0; i < n; i += 1) {
+            String name = in.readString();
+            files.put(name, in.readId());
+        }
+        in.finish();
+        return new Commit(hash, pHash, mHash, time, msg, files);
     }
 
     /** Returns the message log of the commit. */
@@ -117,7 +257,12 @@ public class Commit implements Serializable {
         SimpleDateFormat date
                 = new SimpleDateFormat("EEE MMM dd HH:mm:ss yyyy Z");
 
-        String res = "===\ncommit " + hash + "\nDate: " + date.format(time);
+        String res = "===\ncommit " + hash;
+        if (mergeParent != null) {
+            res += "\nMerge: " + parent.substring(0, SHORT_ID) + " "
+                    + mergeParent.substring(0, SHORT_ID);
+        }
+        res += "\nDate: " + date.format(time);
         res += "\n" + message;
         if (!message.equals("initial commit")) {
             res += "\n";
@@ -0,0 +1,364 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/** The shape of the commit history, kept apart from the commits
+ *  themselves. Each commit has a position; for each position the graph
+ *  holds the positions of the parents and the generation number, which is
+ *  one more than the largest generation of the parents (the initial commit
+ *  has generation 1). A commit's generation is always greater than those
+ *  of its ancestors, so walks looking for an ancestor can stop at commits
+ *  whose generation is too small.
+ *
+ *  The file is a magic number followed by one fixed-size record per
+ *  commit: the binary hash, the two parent positions (-1 if absent) and
+ *  the generation. Records are appended as commits are made; commits that
+ *  are missing from the file, as in repositories made before it existed,
+ *  are added the first time they are asked for.
+ *  @author Jacky Zhao
+ */
+class CommitGraph {
+    /** Marks the start of a graph file. */
+    private static final int MAGIC = 0x47434731;
+    /** Bytes in one record. */
+    private static final int RECORD =
+        PackFile.ID_BYTES + 3 * Integer.BYTES;
+    /** Position used for a missing parent. */
+    static final int NONE = -1;
+    /** Walk flag for commits reached from the first commit. */
+    private static final byte FROM_A = 1;
+    /** Walk flag for commits reached from the second commit. */
+    private static final byte FROM_B = 2;
+    /** Walk flag for commits reached from both commits. */
+    private static final byte FROM_BOTH = FROM_A | FROM_B;
+    /** Initial capacity of the arrays. */
+    private static final int INITIAL = 64;
+
+    /** The graph file. */
+    private final File _file;
+    /** True once _file has been read. */
+    private boolean _loaded;
+    /** Number of commits in the graph. */
+    private int _size;
+    /** Hashes of the commits, by position. */
+    private String[] _ids;
+    /** First parents, by position. */
+    private int[] _parent;
+    /** Second (merged-in) parents, by position. */
+    private int[] _mergeParent;
+    /** Generation numbers, by position. */
+    private int[] _generation;
+    /** Positions of the commits, by hash. */
+    private HashMap<String, Integer> _positions;
+
+    /** A graph stored in FILE.
+     * @param file is the graph file. */
+    CommitGraph(File file) {
+        _file = file;
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        load();
+        return _size;
+    }
+
+    /** Returns the hash of the commit at position K.
+     * @param k is a position. */
+    String id(int k) {
+        return _ids[k];
+    }
+
+    /** Returns the position of the first parent of the commit at position
+     *  K, or NONE.
+     * @param k is a position. */
+    int parent(int k) {
+        return _parent[k];
+    }
+
+    /** Returns the position of the merged-in parent of the commit at
+     *  position K, or NONE.
+     * @param k is a position. */
+    int mergeParent(int k) {
+        return _mergeParent[k];
+    }
+
+    /** Returns the generation number of the commit at position K.
+     * @param k is a position. */
+    int generation(int k) {
+        return _generation[k];
+    }
+
+    /** Returns the position of the commit with hash ID, adding it and its
+     *  missing ancestors to the graph if needed. Returns NONE if there is
+     *  no such commit.
+     * @param id is the full hash of the commit. */
+    int position(String id) {
+        load();
+        Integer k = _positions.get(id);
+        if (k != null) {
+            return k;
+        }
+        if (!CommitLoader.exists(id)) {
+            return NONE;
+        }
+        addMissing(id);
+        return _positions.get(id);
+    }
+
+    /** Throws away the graph, so that it is built again from the commits
+     *  as they are asked for, as after commits are removed. */
+    void clear() {
+        _file.delete();
+        _loaded = false;
+    }
+
+    /** Adds the commit C, whose parents must already be stored, to the
+     *  graph. If the graph has not been read and C has only one parent,
+     *  which is the last commit in the file, as is usual for a new commit,
+     *  its record is appended after reading just that last record.
+     * @param c is a new commit. */
+    void add(Commit c) {
+        if (!_loaded && appendChild(c)) {
+            return;
+        }
+        load();
+        if (!_positions.containsKey(c.getHash())) {
+            addMissing(c.getHash());
+        }
+    }
+
+    /** Appends the record of C to the file, without reading the graph, and
+     *  returns true if C has a single parent whose record is the last in
+     *  the file, which must end with a whole record. Returns false, and
+     *  does nothing, otherwise.
+     * @param c is a new commit. */
+    private boolean appendChild(Commit c) {
+        if (c.getParentHash() == null || c.getMergeParentHash() != null
+            || !_file.isFile()) {
+            return false;
+        }
+        try (RandomAccessFile f = new RandomAccessFile(_file, "rw")) {
+            long len = f.length();
+            if (len < Integer.BYTES + RECORD
+                || (len - Integer.BYTES) % RECORD != 0
+                || f.readInt() != MAGIC) {
+                return false;
+            }
+            byte[] id = new byte[PackFile.ID_BYTES];
+            f.seek(len - RECORD);
+            f.readFully(id);
+            f.skipBytes(2 * Integer.BYTES);
+            int gen = f.readInt();
+            if (!toHex(id).equals(c.getParentHash())) {
+                return false;
+            }
+            ByteBuffer record = ByteBuffer.allocate(RECORD);
+            record.put(toBytes(c.getHash()))
+                .putInt((int) ((len - Integer.BYTES) / RECORD) - 1)
+                .putInt(NONE).putInt(gen + 1);
+            f.write(record.array());
+            return true;
+        } catch (IOException excp) {
+            throw error("Cannot write commit graph: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the hash of a latest common ancestor of the commits with
+     *  hashes A and B, or null if they have none. Commits are visited in
+     *  decreasing order of generation, so every child of a commit is
+     *  visited before it, and the first commit reached from both sides is
+     *  a common ancestor that no other common ancestor descends from.
+     * @param a is the hash of one commit.
+     * @param b is the hash of the other commit. */
+    String mergeBase(String a, String b) {
+        int pa = position(a), pb = position(b);
+        if (pa == NONE || pb == NONE) {
+            return null;
+        }
+        byte[] flags = new byte[_size];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+            (x, y) -> Integer.compare(_generation[y], _generation[x]));
+        flags[pa] |= FROM_A;
+        flags[pb] |= FROM_B;
+        queue.add(pa);
+        if (pb != pa) {
+            queue.add(pb);
+        }
+        while (!queue.isEmpty()) {
+            int k = queue.remove();
+            if (flags[k] == FROM_BOTH) {
+                return _ids[k];
+            }
+            for (int q : new int[] {_parent[k], _mergeParent[k]}) {
+                if (q != NONE && (flags[q] | flags[k]) != flags[q]) {
+                    if (flags[q] == 0) {
+                        queue.add(q);
+                    }
+                    flags[q] |= flags[k];
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Adds the commit with hash ID and all of its ancestors that are not
+     *  yet in the graph, parents before children, and appends their
+     *  records to the file.
+     * @param id is the full hash of the commit. */
+    private void addMissing(String id) {
+        ArrayList<Commit> order = new ArrayList<>();
+        HashMap<String, Commit> pending = new HashMap<>();
+        ArrayDeque<Commit> work = new ArrayDeque<>();
+        Commit start = CommitLoader.load(id);
+        work.push(start);
+        pending.put(id, start);
+        while (!work.isEmpty()) {
+            Commit c = work.peek();
+            boolean ready = true;
+            for (String q : parents(c)) {
+                if (!_positions.containsKey(q) && !pending.containsKey(q)) {
+                    Commit pc = CommitLoader.load(q);
+                    pending.put(q, pc);
+                    work.push(pc);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                work.pop();
+                if (!_positions.containsKey(c.getHash())) {
+                    append(c);
+                    order.add(c);
+                }
+            }
+        }
+        write(order);
+    }
+
+    /** Returns the hashes of the parents of C.
+     * @param c is a commit. */
+    private static String[] parents(Commit c) {
+        if (c.getParentHash() == null) {
+            return new String[0];
+        } else if (c.getMergeParentHash() == null) {
+            return new String[] {c.getParentHash()};
+        } else {
+            return new String[] {c.getParentHash(), c.getMergeParentHash()};
+        }
+    }
+
+    /** Adds C, whose parents are in the graph, to the arrays.
+     * @param c is a commit. */
+    private void append(Commit c) {
+        int p = c.getParentHash() == null
+            ? NONE : _positions.get(c.getParentHash());
+        int m = c.getMergeParentHash() == null
+            ? NONE : _positions.get(c.getMergeParentHash());
+        int gen = 1;
+        if (p != NONE) {
+            gen = Math.max(gen, _generation[p] + 1);
+        }
+        if (m != NONE) {
+            gen = Math.max(gen, _generation[m] + 1);
+        }
+        put(c.getHash(), p, m, gen);
+    }
+
+    /** Adds a commit with hash ID, parents P and M and generation GEN to
+     *  the arrays.
+     * @param id is the hash of the commit.
+     * @param p is the position of the first parent.
+     * @param m is the position of the merged-in parent.
+     * @param gen is the generation of the commit. */
+    private void put(String id, int p, int m, int gen) {
+        if (_size == _ids.length) {
+            int cap = 2 * _size;
+            _ids = Arrays.copyOf(_ids, cap);
+            _parent = Arrays.copyOf(_parent, cap);
+            _mergeParent = Arrays.copyOf(_mergeParent, cap);
+            _generation = Arrays.copyOf(_generation, cap);
+        }
+        _ids[_size] = id;
+        _parent[_size] = p;
+        _mergeParent[_size] = m;
+        _generation[_size] = gen;
+        _positions.put(id, _size);
+        _size += 1;
+    }
+
+    /** Appends the records of the commits in ADDED, which are the last
+     *  commits in the arrays, to the file.
+     * @param added are the new commits. */
+    private void write(ArrayList<Commit> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        boolean fresh = !_file.exists();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                    _file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND)))) {
+            if (fresh) {
+                out.writeInt(MAGIC);
+            }
+            for (int k = _size - added.size(); k < _size; k += 1) {
+                out.write(toBytes(_ids[k]));
+                out.writeInt(_parent[k]);
+                out.writeInt(_mergeParent[k]);
+                out.writeInt(_generation[k]);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write commit graph: %s", excp.getMessage());
+        }
+    }
+
+    /** Reads the file, if that has not been done yet. A partial record
+     *  left at the end by an interrupted write is cut off. */
+    private void load() {
+        if (_loaded) {
+            return;
+        }
+        _loaded = true;
+        _size = 0;
+        _ids = new String[INITIAL];
+        _parent = new int[INITIAL];
+        _mergeParent = new int[INITIAL];
+        _generation = new int[INITIAL];
+        _positions = new HashMap<>();
+        if (!_file.isFile()) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(readContents(_file));
+        if (buf.remaining() < Integer.BYTES || buf.getInt() != MAGIC) {
+            _file.delete();
+            return;
+        }
+        byte[] id = new byte[PackFile.ID_BYTES];
+        while (buf.remaining() >= RECORD) {
+            buf.get(id);
+            put(toHex(id), buf.getInt(), buf.getInt(), buf.getInt());
+        }
+        if (buf.hasRemaining()) {
+            try (RandomAccessFile f = new RandomAccessFile(_file, "rw")) {
+                f.setLength(buf.position());
+            } catch (IOException excp) {
+                throw error("Cannot repair commit graph: %s",
+                        excp.getMessage());
+            }
+        }
+    }
+}
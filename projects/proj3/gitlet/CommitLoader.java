@@ -0,0 +1,61 @@
+package gitlet;
+
+import static gitlet.Utils.*;
+
+/** Reads and writes the commits of a repository. Commits only record the
+ *  hashes of their parents, so ancestors are read through here one at a
+ *  time, when they are asked for. Recently read commits are cached, so
+ *  asking for the same commit again does not read it again.
+ *  @author Jacky Zhao
+ */
+class CommitLoader {
+    /** Largest number of commits kept in memory. */
+    private static final int CACHE_ENTRIES = 4096;
+    /** Largest total size of the commits kept in memory. */
+    private static final long CACHE_BYTES = 1 << 24;
+    /** Recently read commits. */
+    static final ObjectCache<Commit> CACHE =
+        new ObjectCache<>(CACHE_ENTRIES, CACHE_BYTES);
+
+    /** Returns the commit with the full hash ID, or null if there is no
+     *  such commit.
+     * @param id is the hash of the commit. */
+    static Commit load(String id) {
+        Commit c = CACHE.get(id);
+        if (c != null) {
+            return c;
+        }
+        byte[] bytes = Gitlet.OBJECTS.read(ObjectStore.COMMIT, id);
+        if (bytes == null) {
+            return null;
+        }
+        c = decode(id, bytes);
+        CACHE.put(id, c, bytes.length);
+        return c;
+    }
+
+    /** Returns the commit with the full hash ID stored as BYTES, in
+     *  either the old or the current format.
+     * @param id is the hash of the commit.
+     * @param bytes are its stored contents. */
+    static Commit decode(String id, byte[] bytes) {
+        if (Codec.isJavaSerialized(bytes)) {
+            return deserialize(bytes, Commit.class);
+        }
+        return Commit.decode(id, bytes);
+    }
+
+    /** Returns true if a commit with the full hash ID exists.
+     * @param id is the hash of the commit. */
+    static boolean exists(String id) {
+        return Gitlet.OBJECTS.contains(ObjectStore.COMMIT, id);
+    }
+
+    /** Saves the commit C under its hash.
+     * @param c is the commit. */
+    static void store(Commit c) {
+        byte[] bytes = c.encode();
+        Gitlet.OBJECTS.write(ObjectStore.COMMIT, c.getHash(), bytes);
+        CACHE.put(c.getHash(), c, bytes.length);
+    }
+}
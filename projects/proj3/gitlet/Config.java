@@ -0,0 +1,90 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import static gitlet.Utils.*;
+
+/** Settings of a repository, kept as KEY=VALUE lines in .gitlet/config.
+ *  Settings that are not in the file have default values chosen by the
+ *  code that uses them. The file is replaced in one step when a setting
+ *  changes, so it always holds either the old settings or the new.
+ *  @author Jacky Zhao
+ */
+class Config {
+    /** The config file. */
+    private final File _file;
+    /** Folder of the files being written. */
+    private final File _tmp;
+    /** The settings, or null if not yet read. */
+    private Properties _props;
+
+    /** The settings stored in FILE.
+     * @param file is the config file. */
+    Config(File file) {
+        _file = file;
+        _tmp = join(file.getParentFile(), ObjectStore.TMP);
+    }
+
+    /** Returns the setting KEY, or null if it is not set.
+     * @param key is the name of a setting. */
+    String get(String key) {
+        load();
+        return _props.getProperty(key);
+    }
+
+    /** Returns the setting KEY as a boolean, or DFLT if it is not set.
+     * @param key is the name of a setting.
+     * @param dflt is the default value. */
+    boolean getBoolean(String key, boolean dflt) {
+        String value = get(key);
+        return value == null ? dflt : Boolean.parseBoolean(value.trim());
+    }
+
+    /** Returns the setting KEY as an integer, or DFLT if it is not set or
+     *  is not a numeral.
+     * @param key is the name of a setting.
+     * @param dflt is the default value. */
+    long getLong(String key, long dflt) {
+        String value = get(key);
+        try {
+            return value == null ? dflt : Long.parseLong(value.trim());
+        } catch (NumberFormatException excp) {
+            return dflt;
+        }
+    }
+
+    /** Sets KEY to VALUE and saves the settings.
+     * @param key is the name of a setting.
+     * @param value is its new value. */
+    void set(String key, String value) {
+        load();
+        _props.setProperty(key, value);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            _props.store(out, null);
+        } catch (IOException excp) {
+            throw error("Cannot write config: %s", excp.getMessage());
+        }
+        writeAtomically(_file, _tmp, out.toByteArray());
+    }
+
+    /** Reads the settings, if that has not been done yet. */
+    private void load() {
+        if (_props != null) {
+            return;
+        }
+        _props = new Properties();
+        if (_file.isFile()) {
+            try (InputStream in = new FileInputStream(_file)) {
+                _props.load(in);
+            } catch (IOException excp) {
+                throw error("Cannot read config: %s", excp.getMessage());
+            }
+        }
+    }
+}
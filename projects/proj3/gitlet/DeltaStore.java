@@ -0,0 +1,242 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** Blobs stored as differences from other blobs. When a new version of a
+ *  file is added, it may be stored in deltas/B, where B is its hash, as
+ *  the hash of the previous version (the base), the length of the chain of
+ *  deltas down to a whole blob, and a list of instructions that build the
+ *  new version by copying ranges of the base and inserting new bytes.
+ *  Chains are kept no longer than a set depth, and bases are read through
+ *  the store, whose cache keeps recently rebuilt blobs, so that reading a
+ *  blob only replays a few deltas.
+ *  @author Jacky Zhao
+ */
+class DeltaStore {
+    /** Instruction that copies a range of the base. */
+    private static final int COPY = 1;
+    /** Instruction that inserts literal bytes. */
+    private static final int INSERT = 2;
+    /** Length of the blocks of the base that matches are found from. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash of a block. */
+    private static final int PRIME = 31;
+
+    /** Folder of the deltas. */
+    private final File _deltas;
+    /** Folder of the files being written. */
+    private final File _tmp;
+    /** The store that holds the bases. */
+    private final ObjectStore _store;
+
+    /** A delta store in the .gitlet folder ROOT, whose bases are read from
+     *  STORE.
+     * @param root is the .gitlet folder.
+     * @param store holds the bases. */
+    DeltaStore(File root, ObjectStore store) {
+        _deltas = join(root, "deltas");
+        _tmp = join(root, ObjectStore.TMP);
+        _store = store;
+    }
+
+    /** Returns true if the blob with hash ID is stored here.
+     * @param id is the full hash of the blob. */
+    boolean contains(String id) {
+        return join(_deltas, id).isFile();
+    }
+
+    /** Returns the hashes of all blobs stored here, or null if there are
+     *  none. */
+    List<String> ids() {
+        return plainFilenamesIn(_deltas);
+    }
+
+    /** Removes the blob ID.
+     * @param id is the full hash of the blob. */
+    void delete(String id) {
+        join(_deltas, id).delete();
+    }
+
+    /** Returns the hash of the base of the blob ID, which must be stored
+     *  here.
+     * @param id is the full hash of the blob. */
+    String base(String id) {
+        byte[] delta = readContents(join(_deltas, id));
+        return toHex(Arrays.copyOf(delta, PackFile.ID_BYTES));
+    }
+
+    /** Returns the number of deltas that must be applied to rebuild the
+     *  blob ID, which is 0 if it is not stored here.
+     * @param id is the full hash of the blob. */
+    int depth(String id) {
+        if (!contains(id)) {
+            return 0;
+        }
+        byte[] delta = readContents(join(_deltas, id));
+        return ByteBuffer.wrap(delta).getInt(PackFile.ID_BYTES);
+    }
+
+    /** Stores the contents of FILE as the blob ID, as a delta from the blob
+     *  BASE, provided that the resulting chain is no deeper than MAXDEPTH
+     *  and the delta is less than half the size of the contents. Returns
+     *  true if the delta was stored.
+     * @param id is the hash of the contents of FILE.
+     * @param file is a working file.
+     * @param base is the hash of the previous version of FILE.
+     * @param maxDepth is the longest chain allowed. */
+    boolean write(String id, File file, String base, int maxDepth) {
+        int depth = depth(base) + 1;
+        if (depth > maxDepth || !_store.contains(ObjectStore.BLOB, base)) {
+            return false;
+        }
+        byte[] target = readContents(file);
+        byte[] delta = encode(_store.read(ObjectStore.BLOB, base), target);
+        if (delta.length >= target.length / 2) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(PackFile.ID_BYTES
+                                                + Integer.BYTES);
+        header.put(toBytes(base)).putInt(depth);
+        _deltas.mkdirs();
+        writeAtomically(join(_deltas, id), _tmp, header.array(), delta);
+        return true;
+    }
+
+    /** Returns the contents of the blob with hash ID, which must be stored
+     *  here, reading its base from _store.
+     * @param id is the full hash of the blob. */
+    byte[] read(String id) {
+        byte[] delta = readContents(join(_deltas, id));
+        String base = toHex(Arrays.copyOf(delta, PackFile.ID_BYTES));
+        return apply(_store.read(ObjectStore.BLOB, base), delta,
+                PackFile.ID_BYTES + Integer.BYTES);
+    }
+
+    /** Returns instructions that build TARGET from BASE. Every BLOCK-byte
+     *  block of BASE is entered in a hash table; a rolling hash of each
+     *  BLOCK-byte window of TARGET is looked up in it, and matches are
+     *  extended as far as they go in both directions.
+     * @param base is the old contents.
+     * @param target is the new contents. */
+    static byte[] encode(byte[] base, byte[] target) {
+        int nblocks = base.length / BLOCK;
+        int size = Integer.highestOneBit(Math.max(nblocks, 1) * 2);
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        for (int b = nblocks - 1; b >= 0; b -= 1) {
+            table[hash(base, b * BLOCK) & (size - 1)] = b * BLOCK;
+        }
+        int top = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            top *= PRIME;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int pending = 0, i = 0;
+            int h = target.length >= BLOCK ? hash(target, 0) : 0;
+            while (i + BLOCK <= target.length) {
+                int at = nblocks == 0 ? -1 : table[h & (size - 1)];
+                if (at >= 0 && Arrays.equals(base, at, at + BLOCK,
+                                             target, i, i + BLOCK)) {
+                    int start = i, from = at;
+                    while (start > pending && from > 0
+                           && base[from - 1] == target[start - 1]) {
+                        start -= 1;
+                        from -= 1;
+                    }
+                    int end = i + BLOCK, upto = at + BLOCK;
+                    while (end < target.length && upto < base.length
+                           && base[upto] == target[end]) {
+                        end += 1;
+                        upto += 1;
+                    }
+                    insert(out, target, pending, start);
+                    out.writeByte(COPY);
+                    out.writeInt(from);
+                    out.writeInt(end - start);
+                    pending = i = end;
+                    if (i + BLOCK <= target.length) {
+                        h = hash(target, i);
+                    }
+                    continue;
+                }
+                if (i + BLOCK < target.length) {
+                    h = (h - top * target[i]) * PRIME + target[i + BLOCK];
+                }
+                i += 1;
+            }
+            insert(out, target, pending, target.length);
+            out.flush();
+        } catch (IOException excp) {
+            throw error("Cannot encode delta: %s", excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the result of applying the instructions in DELTA, starting
+     *  at position START, to BASE.
+     * @param base is the old contents.
+     * @param delta holds the instructions.
+     * @param start is where the instructions begin. */
+    static byte[] apply(byte[] base, byte[] delta, int start) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(delta, start,
+                                         delta.length - start))) {
+            while (in.available() > 0) {
+                int op = in.readByte();
+                if (op == COPY) {
+                    int from = in.readInt();
+                    result.write(base, from, in.readInt());
+                } else if (op == INSERT) {
+                    byte[] lit = new byte[in.readInt()];
+                    in.readFully(lit);
+                    result.writeBytes(lit);
+                } else {
+                    throw error("Corrupted delta.");
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot apply delta: %s", excp.getMessage());
+        }
+        return result.toByteArray();
+    }
+
+    /** Writes an instruction inserting the bytes of TARGET from FROM up to
+     *  TO to OUT, if there are any.
+     * @param out is where instructions go.
+     * @param target is the new contents.
+     * @param from is the first byte to insert.
+     * @param to is just past the last byte to insert. */
+    private static void insert(DataOutputStream out, byte[] target,
+                               int from, int to) throws IOException {
+        if (to > from) {
+            out.writeByte(INSERT);
+            out.writeInt(to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Returns the hash of the BLOCK bytes of DATA starting at START, as
+     *  computed by the rolling hash in encode.
+     * @param data holds the block.
+     * @param start is where it starts. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = h * PRIME + data[i];
+        }
+        return h;
+    }
+}
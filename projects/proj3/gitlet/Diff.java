@@ -0,0 +1,409 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line differences between two versions of a file, found with Myers'
+ *  O(ND) algorithm in its linear-space form: the middle snake of the edit
+ *  graph is found by searching from both ends at once, and the two halves
+ *  on either side of it are compared in turn. Lines are first numbered so
+ *  that equal lines get equal numbers, and the algorithm then works on
+ *  arrays of those numbers. Lines that the two versions share at their
+ *  starts and ends are skipped before searching, so files with few changes
+ *  cost little more than reading them. As in Git, a search that needs
+ *  too many edits is cut short and split at the furthest point reached,
+ *  so that very different files are still compared quickly, at the price
+ *  of a result that may not be the shortest.
+ *  @author Jacky Zhao
+ */
+class Diff {
+
+    /** The lines of one version of a file. Each line includes its newline,
+     *  if any, and is a range of the file's contents rather than a copy. */
+    static class Lines {
+        /** The contents. */
+        private final byte[] _data;
+        /** Start of each line, followed by the length of _data. */
+        private final int[] _starts;
+
+        /** The lines of DATA.
+         * @param data are the contents of a file. */
+        Lines(byte[] data) {
+            _data = data;
+            int n = 0;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n' && i + 1 < data.length) {
+                    n += 1;
+                }
+            }
+            _starts = new int[data.length == 0 ? 1 : n + 2];
+            int k = 1;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n' && i + 1 < data.length) {
+                    _starts[k] = i + 1;
+                    k += 1;
+                }
+            }
+            _starts[_starts.length - 1] = data.length;
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return _starts.length - 1;
+        }
+
+        /** Returns true if the last line ends with a newline, or there are
+         *  no lines. */
+        boolean endsWithNewline() {
+            return _data.length == 0 || _data[_data.length - 1] == '\n';
+        }
+
+        /** Returns line K, as a string with one character per byte.
+         * @param k is the number of a line, from 0. */
+        String key(int k) {
+            return new String(_data, _starts[k], _starts[k + 1] - _starts[k],
+                              StandardCharsets.ISO_8859_1);
+        }
+
+        /** Writes line K to OUT after the byte PREFIX, adding a newline and
+         *  a note if the line has none.
+         * @param out is where the line goes.
+         * @param prefix marks what happened to the line.
+         * @param k is the number of a line, from 0. */
+        void writeLine(OutputStream out, char prefix, int k)
+            throws IOException {
+            out.write(prefix);
+            write(out, k, k + 1);
+            if (k == size() - 1 && !endsWithNewline()) {
+                out.write(NO_NEWLINE);
+            }
+        }
+
+        /** Writes lines FROM up to TO to OUT.
+         * @param out is where the lines go.
+         * @param from is the first line.
+         * @param to is just past the last line. */
+        void write(OutputStream out, int from, int to) throws IOException {
+            out.write(_data, _starts[from], _starts[to] - _starts[from]);
+        }
+    }
+
+    /** A change: lines aStart up to aEnd of the old version are replaced by
+     *  lines bStart up to bEnd of the new one. */
+    static class Hunk {
+        /** First old line. */
+        final int aStart;
+        /** Just past the last old line. */
+        final int aEnd;
+        /** First new line. */
+        final int bStart;
+        /** Just past the last new line. */
+        final int bEnd;
+
+        /** The change of old lines ASTART to AEND into new lines BSTART to
+         *  BEND.
+         * @param aStart is the first old line.
+         * @param aEnd is just past the last old line.
+         * @param bStart is the first new line.
+         * @param bEnd is just past the last new line. */
+        Hunk(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** Fewest edits searched for before a search is cut short. */
+    private static final int MIN_COST = 256;
+    /** Number of unchanged lines shown around each change. */
+    private static final int CONTEXT = 3;
+    /** How much of a file is looked at to decide if it is binary. */
+    private static final int BINARY_CHECK = 8000;
+    /** Ends a line that has no newline in a unified diff. */
+    private static final byte[] NO_NEWLINE =
+        "\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Line numbers of the old version. */
+    private final int[] _a;
+    /** Line numbers of the new version. */
+    private final int[] _b;
+    /** The changes found so far, in order. */
+    private final ArrayList<Hunk> _hunks = new ArrayList<>();
+
+    /** A comparison of the numbered lines A and B.
+     * @param a are the old lines.
+     * @param b are the new lines. */
+    private Diff(int[] a, int[] b) {
+        _a = a;
+        _b = b;
+    }
+
+    /** Returns the changes that turn the lines A into the lines B, in
+     *  order, as few lines being changed as possible.
+     * @param a are the old lines.
+     * @param b are the new lines. */
+    static List<Hunk> diff(Lines a, Lines b) {
+        int[][] ids = number(a, b);
+        return diff(ids[0], ids[1]);
+    }
+
+    /** Returns the changes that turn the numbered lines A into B.
+     * @param a are the old lines.
+     * @param b are the new lines. */
+    static List<Hunk> diff(int[] a, int[] b) {
+        Diff d = new Diff(a, b);
+        d.compare(0, a.length, 0, b.length);
+        return d._hunks;
+    }
+
+    /** Writes the differences between the versions A and B of the file
+     *  PATH to OUT as a unified diff, as printed by git diff, with CONTEXT
+     *  unchanged lines around each change. A or B is null if the file does
+     *  not exist in that version. Each line is written straight from the
+     *  contents as its hunk is reached.
+     * @param out is where the diff goes.
+     * @param path is the name of the file.
+     * @param a is the old version, or null.
+     * @param b is the new version, or null. */
+    static void unified(OutputStream out, String path, byte[] a, byte[] b)
+        throws IOException {
+        StringBuilder header = new StringBuilder();
+        header.append("diff --git a/").append(path).append(" b/")
+            .append(path).append('\n');
+        if (a == null) {
+            header.append("new file\n");
+        } else if (b == null) {
+            header.append("deleted file\n");
+        }
+        if (isBinary(a) || isBinary(b)) {
+            header.append("Binary files ")
+                .append(a == null ? "/dev/null" : "a/" + path).append(" and ")
+                .append(b == null ? "/dev/null" : "b/" + path)
+                .append(" differ\n");
+            out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        header.append("--- ").append(a == null ? "/dev/null" : "a/" + path)
+            .append("\n+++ ").append(b == null ? "/dev/null" : "b/" + path)
+            .append('\n');
+        out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+        Lines la = new Lines(a == null ? new byte[0] : a);
+        Lines lb = new Lines(b == null ? new byte[0] : b);
+        List<Hunk> hunks = diff(la, lb);
+        for (int i = 0, j = 0; i < hunks.size(); i = j + 1) {
+            j = i;
+            while (j + 1 < hunks.size()
+                   && hunks.get(j + 1).aStart - hunks.get(j).aEnd
+                      <= 2 * CONTEXT) {
+                j += 1;
+            }
+            Hunk first = hunks.get(i), last = hunks.get(j);
+            int aFrom = Math.max(0, first.aStart - CONTEXT);
+            int aTo = Math.min(la.size(), last.aEnd + CONTEXT);
+            int bFrom = first.bStart - (first.aStart - aFrom);
+            int bTo = last.bEnd + (aTo - last.aEnd);
+            out.write(String.format("@@ -%s +%s @@\n",
+                                    range(aFrom, aTo), range(bFrom, bTo))
+                      .getBytes(StandardCharsets.UTF_8));
+            int k = aFrom;
+            for (Hunk h : hunks.subList(i, j + 1)) {
+                for (; k < h.aStart; k += 1) {
+                    la.writeLine(out, ' ', k);
+                }
+                for (; k < h.aEnd; k += 1) {
+                    la.writeLine(out, '-', k);
+                }
+                for (int n = h.bStart; n < h.bEnd; n += 1) {
+                    lb.writeLine(out, '+', n);
+                }
+            }
+            for (; k < aTo; k += 1) {
+                la.writeLine(out, ' ', k);
+            }
+        }
+    }
+
+    /** Returns the range of lines FROM up to TO as written in the header
+     *  of a hunk: the first line, counting from 1 (or the line before, if
+     *  there are none), and the number of lines if it is not 1.
+     * @param from is the first line, from 0.
+     * @param to is just past the last line. */
+    private static String range(int from, int to) {
+        if (to - from == 1) {
+            return Integer.toString(from + 1);
+        }
+        return (to == from ? from : from + 1) + "," + (to - from);
+    }
+
+    /** Returns true if DATA looks like the contents of a binary file, as
+     *  Git decides: a zero byte near the start.
+     * @param data are the contents of a file, or null. */
+    private static boolean isBinary(byte[] data) {
+        if (data == null) {
+            return false;
+        }
+        for (int i = 0; i < Math.min(data.length, BINARY_CHECK); i += 1) {
+            if (data[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the lines of each of FILES as numbers, equal lines having
+     *  equal numbers.
+     * @param files are versions of a file. */
+    static int[][] number(Lines... files) {
+        HashMap<String, Integer> ids = new HashMap<>();
+        int[][] result = new int[files.length][];
+        for (int f = 0; f < files.length; f += 1) {
+            result[f] = new int[files[f].size()];
+            for (int k = 0; k < result[f].length; k += 1) {
+                Integer id = ids.putIfAbsent(files[f].key(k), ids.size());
+                result[f][k] = id == null ? ids.size() - 1 : id;
+            }
+        }
+        return result;
+    }
+
+    /** Adds the changes between old lines ALO up to AHI and new lines BLO
+     *  up to BHI.
+     * @param aLo is the first old line.
+     * @param aHi is just past the last old line.
+     * @param bLo is the first new line.
+     * @param bHi is just past the last new line. */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && _a[aLo] == _b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && _a[aHi - 1] == _b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            if (aLo < aHi || bLo < bHi) {
+                add(aLo, aHi, bLo, bHi);
+            }
+            return;
+        }
+        int[] split = middleSnake(aLo, aHi, bLo, bHi);
+        if (split == null) {
+            add(aLo, aHi, bLo, bHi);
+        } else {
+            compare(aLo, split[0], bLo, split[1]);
+            compare(split[0], aHi, split[1], bHi);
+        }
+    }
+
+    /** Returns a point {x, y} on a shortest edit path from (ALO, BLO) to
+     *  (AHI, BHI) that splits the edits about in half, or null if there is
+     *  none. The furthest reaching paths of each edit count are followed
+     *  forward from the start and backward from the end until they
+     *  overlap. If that takes more edits than about the square root of
+     *  the lengths, the point furthest from the start reached so far is
+     *  returned instead.
+     * @param aLo is the first old line.
+     * @param aHi is just past the last old line.
+     * @param bLo is the first new line.
+     * @param bHi is just past the last new line. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo, m = bHi - bLo;
+        int maxCost = Math.max(MIN_COST, (int) Math.sqrt(n + m));
+        int maxD = (n + m + 1) / 2;
+        int offset = Math.min(maxD, maxCost + 1), len = 2 * offset + 2;
+        int[] forward = new int[len], backward = new int[len];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int kStart = 0, kEnd = 0, rStart = 0, rEnd = 0;
+        int bestX = 0, bestY = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            if (d > maxCost) {
+                if (bestX + bestY == 0 || (bestX == n && bestY == m)) {
+                    return null;
+                }
+                return new int[] {aLo + bestX, bLo + bestY};
+            }
+            for (int k = -d + kStart; k <= d - kEnd; k += 2) {
+                int i = offset + k;
+                int x = k == -d || (k != d && forward[i - 1] < forward[i + 1])
+                    ? forward[i + 1] : forward[i - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && _a[aLo + x] == _b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[i] = x;
+                if (x > n) {
+                    kEnd += 2;
+                } else if (y > m) {
+                    kStart += 2;
+                } else if (x + y > bestX + bestY) {
+                    bestX = x;
+                    bestY = y;
+                }
+                if (x <= n && y <= m && odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j < len && backward[j] != -1
+                        && x >= n - backward[j]) {
+                        return new int[] {aLo + x, bLo + y};
+                    }
+                }
+            }
+            for (int k = -d + rStart; k <= d - rEnd; k += 2) {
+                int j = offset + k;
+                int x = k == -d
+                    || (k != d && backward[j - 1] < backward[j + 1])
+                    ? backward[j + 1] : backward[j - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m
+                       && _a[aHi - x - 1] == _b[bHi - y - 1]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[j] = x;
+                if (x > n) {
+                    rEnd += 2;
+                } else if (y > m) {
+                    rStart += 2;
+                } else if (!odd) {
+                    int i = offset + delta - k;
+                    if (i >= 0 && i < len && forward[i] != -1
+                        && forward[i] >= n - x) {
+                        int fx = forward[i];
+                        return new int[] {aLo + fx, bLo + fx - (i - offset)};
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Adds the change of old lines ALO to AHI into new lines BLO to BHI,
+     *  joining it to the previous change if they touch.
+     * @param aLo is the first old line.
+     * @param aHi is just past the last old line.
+     * @param bLo is the first new line.
+     * @param bHi is just past the last new line. */
+    private void add(int aLo, int aHi, int bLo, int bHi) {
+        if (!_hunks.isEmpty()) {
+            Hunk last = _hunks.get(_hunks.size() - 1);
+            if (last.aEnd == aLo && last.bEnd == bLo) {
+                _hunks.set(_hunks.size() - 1,
+                           new Hunk(last.aStart, aHi, last.bStart, bHi));
+                return;
+            }
+        }
+        _hunks.add(new Hunk(aLo, aHi, bLo, bHi));
+    }
+}
@@ -0,0 +1,144 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/** Finds and removes the objects of a repository that nothing refers to.
+ *  The mark phase starts from the branch heads and the staged blobs and
+ *  follows parents through the commit graph, then each reached commit's
+ *  tree, skipping trees already reached so that subtrees shared between
+ *  commits are walked once, and finally the bases of blobs stored as
+ *  deltas. Reached objects are marked in one bitmap per object type,
+ *  indexed by the object's position in the sorted list of all objects of
+ *  that type, and commits are first marked by their position in the
+ *  graph, so marking needs a bit rather than a hash per object. The sweep
+ *  phase removes every unmarked object (see ObjectStore.sweep), collecting
+ *  the packed ones of all types in one bitmap so that the pack is
+ *  rewritten once, and then the temporary files of unfinished writes.
+ *  @author Jacky Zhao
+ */
+class GarbageCollector {
+    /** The objects. */
+    private final ObjectStore _store;
+    /** The commit graph. */
+    private final CommitGraph _graph;
+    /** Sorted hashes of all blobs. */
+    private final List<String> _blobs;
+    /** Sorted hashes of all trees. */
+    private final List<String> _trees;
+    /** Sorted hashes of all commits. */
+    private final List<String> _commits;
+    /** Marks the reached blobs, by position in _blobs. */
+    private final BitSet _liveBlobs = new BitSet();
+    /** Marks the reached trees, by position in _trees. */
+    private final BitSet _liveTrees = new BitSet();
+    /** Marks the reached commits, by position in _commits. */
+    private final BitSet _liveCommits = new BitSet();
+
+    /** A collector for the objects in STORE, whose history is GRAPH.
+     * @param store holds the objects.
+     * @param graph is the commit graph. */
+    GarbageCollector(ObjectStore store, CommitGraph graph) {
+        _store = store;
+        _graph = graph;
+        _blobs = store.ids(ObjectStore.BLOB);
+        _trees = store.ids(ObjectStore.TREE);
+        _commits = store.ids(ObjectStore.COMMIT);
+    }
+
+    /** Removes all objects not reachable from the commits HEADS or the
+     *  blobs STAGED, and returns the number removed.
+     * @param heads are the hashes of the branch heads.
+     * @param staged are the hashes of the staged blobs. */
+    int collect(Collection<String> heads, Collection<String> staged) {
+        markCommits(heads);
+        for (String blob : staged) {
+            mark(_blobs, _liveBlobs, blob);
+        }
+        markDeltaBases();
+        BitSet packed = _store.packed();
+        int removed =
+            _store.sweep(ObjectStore.BLOB, _blobs, _liveBlobs, packed)
+            + _store.sweep(ObjectStore.TREE, _trees, _liveTrees, packed)
+            + _store.sweep(ObjectStore.COMMIT, _commits, _liveCommits,
+                           packed);
+        _store.retainPacked(packed);
+        _store.clearTemporary();
+        return removed;
+    }
+
+    /** Marks the commits HEADS, their ancestors, and their trees.
+     * @param heads are the hashes of the branch heads. */
+    private void markCommits(Collection<String> heads) {
+        BitSet reached = new BitSet(_graph.size());
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        for (String id : heads) {
+            int k = _graph.position(id);
+            if (k != CommitGraph.NONE && !reached.get(k)) {
+                reached.set(k);
+                work.push(k);
+            }
+        }
+        while (!work.isEmpty()) {
+            int k = work.pop();
+            String id = _graph.id(k);
+            mark(_commits, _liveCommits, id);
+            markTree(CommitLoader.load(id).getTree());
+            for (int p : new int[] {_graph.parent(k), _graph.mergeParent(k)}) {
+                if (p != CommitGraph.NONE && !reached.get(p)) {
+                    reached.set(p);
+                    work.push(p);
+                }
+            }
+        }
+    }
+
+    /** Marks the tree ID and everything in it, unless it is marked already.
+     * @param id is the hash of a tree. */
+    private void markTree(String id) {
+        if (!mark(_trees, _liveTrees, id)) {
+            return;
+        }
+        Tree t = Tree.load(id);
+        for (String blob : t.files().values()) {
+            mark(_blobs, _liveBlobs, blob);
+        }
+        for (String sub : t.dirs().values()) {
+            markTree(sub);
+        }
+    }
+
+    /** Marks the bases of the marked blobs that are stored as deltas, and
+     *  their bases in turn. */
+    private void markDeltaBases() {
+        for (int i = _liveBlobs.nextSetBit(0); i >= 0;
+             i = _liveBlobs.nextSetBit(i + 1)) {
+            for (String base = _store.deltaBase(_blobs.get(i));
+                 base != null && mark(_blobs, _liveBlobs, base);
+                 base = _store.deltaBase(base)) {
+                continue;
+            }
+        }
+    }
+
+    /** Marks ID in LIVE, the bitmap over the sorted hashes IDS. Returns
+     *  false if it was already marked. Objects missing from IDS, such as
+     *  trees written for old commits during the walk, are never removed,
+     *  so they count as newly marked.
+     * @param ids are sorted hashes.
+     * @param live marks some of them.
+     * @param id is the hash to mark. */
+    private static boolean mark(List<String> ids, BitSet live, String id) {
+        int i = Collections.binarySearch(ids, id);
+        if (i < 0) {
+            return true;
+        } else if (live.get(i)) {
+            return false;
+        }
+        live.set(i);
+        return true;
+    }
+}
@@ -1,11 +1,26 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Set;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.ArrayList;
 
 
@@ -24,12 +39,8 @@ public class Gitlet implements Serializable {
     private static File cwd = new File(System.getProperty("user.dir"));
     /** The parent of the current commit. */
     private Commit p;
-    /** The current commit for global log. */
-    private Commit gl;
     /** Sees whether there is a conflict in files before committing. */
     private boolean conflicted = false;
-    /** Keeps track of the Commit Tree for merge. */
-    private HashMap<String, Commit> cTree;
 
     /** Folder of the gitlet. */
     static final File GITLET_FOLDER = join(cwd, ".gitlet");
@@ -39,21 +50,62 @@ public class Gitlet implements Serializable {
     static final File BRANCHES = join(GITLET_FOLDER, "branches");
     /** Folder of the commits. */
     static final File COMMITS = join(GITLET_FOLDER, "commits");
-    /** Folder of the blobs. */
-    static final File GL = join(GITLET_FOLDER, "global-log");
+    /** Folder of the paths of the remotes, by name. */
+    static final File REMOTES = join(GITLET_FOLDER, "remotes");
     /** Folder of the staging area. */
     static final File STAGING_AREA = join(GITLET_FOLDER, "staging_area");
+    /** File holding the version of the repository format. */
+    static final File VERSION = join(GITLET_FOLDER, "version");
+    /** The current repository format, in which commits name their parents
+     *  by hash. Repositories without a VERSION file use the old format. */
+    static final String FORMAT_VERSION = "2";
+    /** The blobs and commits of the repository. */
+    static final ObjectStore OBJECTS = new ObjectStore(GITLET_FOLDER);
+    /** Parents and generation numbers of all commits, used for merge. */
+    static final CommitGraph GRAPH =
+        new CommitGraph(join(GITLET_FOLDER, "commit-graph"));
+    /** Bitmaps of the commits reachable from branch tips, for ancestor
+     *  queries. */
+    static final ReachabilityIndex REACH =
+        new ReachabilityIndex(join(GITLET_FOLDER, "bitmaps"), GRAPH);
+    /** Sorted ids of all commits, for abbreviated ids. */
+    static final PrefixIndex PREFIXES =
+        new PrefixIndex(join(GITLET_FOLDER, "commit-ids"));
+    /** Bloom filters of the paths each commit changed, for log of a
+     *  path. */
+    static final PathFilters FILTERS =
+        new PathFilters(join(GITLET_FOLDER, "path-filters"));
+    /** Commit ids by message, for find. */
+    static final MessageIndex MESSAGES =
+        new MessageIndex(join(GITLET_FOLDER, "messages"));
+    /** The settings of the repository. */
+    static final Config CONFIG = OBJECTS.config();
+    /** Stat data and hashes of working files, so unchanged files need not
+     *  be hashed again. */
+    static final StatCache STAT_CACHE =
+        new StatCache(join(GITLET_FOLDER, "index"));
+    /** Changes to the branches, HEAD and the staging area, made together
+     *  at the end of each command. */
+    static final Journal JOURNAL = new Journal(GITLET_FOLDER);
 
     /** Creates a new Gitlet object. Keeps track of many collections involving
      * files and commits. _head is the name of the head branch and stage
      * represents the staging area for committing files. */
     public Gitlet() {
+        if (GITLET_FOLDER.exists()) {
+            JOURNAL.recover();
+        }
+        if (GITLET_FOLDER.exists() && !VERSION.exists()) {
+            LegacyCommit.migrate(COMMITS,
+                    join(GITLET_FOLDER, ObjectStore.TMP));
+            writeContents(VERSION, FORMAT_VERSION);
+        }
         if (join(BRANCHES, "HEAD").exists()) {
             _head = readContentsAsString(join(BRANCHES, "HEAD"));
         }
         File s = join(STAGING_AREA, "stage");
         if (s.exists()) {
-            stage = readObject(s, StagingArea.class);
+            stage = StagingArea.read(s);
         }
     }
 
@@ -76,17 +128,23 @@ public class Gitlet implements Serializable {
             BLOBS.mkdirs();
             BRANCHES.mkdirs();
             COMMITS.mkdirs();
-            GL.mkdirs();
             STAGING_AREA.mkdirs();
-            Commit initCom = new Commit("initial commit", null, null);
+            Commit initCom = new Commit("initial commit", null,
+                                        Tree.empty());
 
             String hash = initCom.getHash();
-            writeObject(join(COMMITS, hash), initCom);
-            writeContents(join(BRANCHES, _head), hash);
-            writeContents(new File(".gitlet/branches/HEAD"), "master");
+            CommitLoader.store(initCom);
+            GRAPH.add(initCom);
+            PREFIXES.add(hash);
+            FILTERS.add(hash, Collections.emptySet());
+            MESSAGES.add(initCom);
+            Refs.write(join(BRANCHES, _head), hash);
+            setHead(_head);
 
             stage = new StagingArea();
-            writeObject(join(STAGING_AREA, "stage"), stage);
+            saveStage();
+            JOURNAL.write(VERSION, FORMAT_VERSION.getBytes(
+                    StandardCharsets.UTF_8));
         }
     }
 
@@ -101,25 +159,69 @@ public class Gitlet implements Serializable {
      *
      * @param name is the filename passed in. */
     public void add(String name) {
-        File add = join(cwd, name);
-        if (!add.exists()) {
-            System.out.print("File does not exist.");
-        } else {
-            String hash = sha1(readContents(add));
-            String toAdd = getCommit().getTracking().get(name);
-            if (toAdd != null && toAdd.equals(hash)) {
-                if (stage.getRmFiles().contains(name)) {
-                    writeObject(join(STAGING_AREA, "stage"), stage);
-                }
+        add(List.of(name));
+    }
+
+    /** Adds the files PATHS as add does, where a path that is a directory
+     * stands for all the files under it. The files are hashed and stored
+     * in parallel by a WorkTree and the staging area is saved once. If any
+     * path does not exist, nothing is staged.
+     *
+     * @param paths are the names of files and directories. */
+    public void add(List<String> paths) {
+        WorkTree work = new WorkTree(cwd);
+        TreeSet<String> names = new TreeSet<>();
+        for (String path : paths) {
+            TreeSet<String> found = work.list(path);
+            if (found == null) {
+                System.out.print("File does not exist.");
                 return;
             }
-            if (stage.getRmFiles().contains(name)) {
-                stage.getRmFiles().remove(name);
+            names.addAll(found);
+        }
+        stageFiles(work, names, getCommit());
+    }
+
+    /** Stages every change in the working directory, as add of all its
+     * files, walking directories, together with rm of the tracked files
+     * that have been deleted. Files staged for addition that have been
+     * deleted are unstaged.
+     */
+    public void addAll() {
+        WorkTree work = new WorkTree(cwd);
+        TreeSet<String> names = work.list("");
+        Commit head = getCommit();
+        TreeSet<String> gone = new TreeSet<>(head.getTracking().keySet());
+        gone.addAll(stage.getAddFiles().keySet());
+        gone.removeAll(names);
+        for (String name : gone) {
+            stage.rmAdd(name);
+            if (head.get(name) != null && !stage.getRmFiles().contains(name)) {
+                stage.addToRm(name);
+            }
+        }
+        stageFiles(work, names, head);
+    }
+
+    /** Stages the working files NAMES of WORK against the commit HEAD and
+     * saves the staging area.
+     * @param work holds the files.
+     * @param names are the paths of the files.
+     * @param head is the current commit. */
+    private void stageFiles(WorkTree work, TreeSet<String> names,
+                            Commit head) {
+        TreeMap<String, String> hashes =
+            work.store(new ArrayList<>(names), head);
+        for (Map.Entry<String, String> e : hashes.entrySet()) {
+            String name = e.getKey();
+            stage.rmFromRm(name);
+            if (e.getValue().equals(head.get(name))) {
+                stage.rmAdd(name);
+            } else {
+                stage.add(name, e.getValue());
             }
-            writeContents(join(BLOBS, hash), readContents(add));
-            stage.add(name, hash);
-            writeObject(join(STAGING_AREA, "stage"), stage);
         }
+        saveStage();
     }
 
     /** Saves a snapshot of tracked files in the current commit and staging area
@@ -136,6 +238,15 @@ public class Gitlet implements Serializable {
      *
      * @param msg is the message of the commit input by the user. */
     public void commit(String msg) {
+        commit(msg, null);
+    }
+
+    /** Makes a commit with the message MSG, whose second parent is MHASH if
+     * it is not null.
+     *
+     * @param msg is the message of the commit input by the user.
+     * @param mHash is the hash of the merged-in commit. */
+    private void commit(String msg, String mHash) {
         HashMap<String, String> added = stage.getAddFiles();
         ArrayList<String> removed = stage.getRmFiles();
         if (msg.equals("")) {
@@ -144,22 +255,22 @@ public class Gitlet implements Serializable {
             System.out.println("No changes added to the commit.");
         } else {
             Commit parent = getCommit();
-            HashMap<String, String> trackedFiles = parent.getTracking();
-            Set<String> filesToAdd = added.keySet();
-            for (String name: filesToAdd) {
-                trackedFiles.put(name, added.get(name));
-            }
+            TreeMap<String, String> changes = new TreeMap<>(added);
             for (String rm: removed) {
-                trackedFiles.remove(rm);
+                changes.put(rm, null);
             }
-            parent.setTracking(trackedFiles);
+            String tree = Tree.apply(parent.getTree(), changes);
 
-            Commit c = new Commit(msg, parent, trackedFiles);
-            writeContents(join(BRANCHES, _head), c.getHash());
-            writeObject(join(COMMITS, c.getHash()), c);
+            Commit c = new Commit(msg, parent.getHash(), mHash, tree);
+            Refs.write(join(BRANCHES, _head), c.getHash());
+            CommitLoader.store(c);
+            GRAPH.add(c);
+            PREFIXES.add(c.getHash());
+            FILTERS.add(c.getHash(), changes.keySet());
+            MESSAGES.add(c);
 
             stage.clear();
-            writeObject(join(STAGING_AREA, "stage"), stage);
+            saveStage();
         }
     }
 
@@ -177,10 +288,10 @@ public class Gitlet implements Serializable {
             if (added.containsKey(name)) {
                 stage.rmAdd(name);
             }
-            writeObject(join(STAGING_AREA, "stage"), stage);
+            saveStage();
         } else if (added.containsKey(name)) {
             stage.rmAdd(name);
-            writeObject(join(STAGING_AREA, "stage"), stage);
+            saveStage();
         } else {
             System.out.println("No reason to remove the file.");
         }
@@ -199,17 +310,87 @@ public class Gitlet implements Serializable {
         }
     }
 
-    /** Like log, except displays information about all commits ever made.
-     * The order doesn't matter. Hint: there is a useful method in Utils
-     * that will help you iterate over files within a directory. */
-    public void globalLog() {
-        if (!join(GL, "gl").exists()) {
-            gl = getCommit();
-            writeContents(GL, gl.getHash());
+    /** Like log, except displays only the commits that changed PATH, a
+     * file or directory, from their first parent. Each commit's filter of
+     * changed paths is tested first, working down the commit graph, and a
+     * commit is read only if its filter allows PATH; commits without a
+     * filter, as in repositories made before there were filters, get one
+     * the first time they are passed.
+     *
+     * @param path is the name of a file or directory. */
+    public void logPath(String path) {
+        while (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
         }
-        if (gl != null) {
-            System.out.println(gl.reportLog());
-            gl = gl.getParent();
+        for (int k = GRAPH.position(Refs.read(join(BRANCHES, _head)));
+             k != CommitGraph.NONE; k = GRAPH.parent(k)) {
+            int p = GRAPH.parent(k);
+            String id = GRAPH.id(k);
+            byte[] filter = FILTERS.get(id);
+            if (filter == null) {
+                filter = FILTERS.add(id, p == CommitGraph.NONE
+                    ? Collections.emptySet()
+                    : Tree.diff(CommitLoader.load(GRAPH.id(p)).getTree(),
+                                CommitLoader.load(id).getTree()).keySet());
+            }
+            if (!PathFilters.mightContain(filter, path)) {
+                continue;
+            }
+            Commit c = CommitLoader.load(id);
+            String before = p == CommitGraph.NONE ? null
+                : Tree.lookup(CommitLoader.load(GRAPH.id(p)).getTree(), path);
+            if (!Objects.equals(before, Tree.lookup(c.getTree(), path))) {
+                System.out.println(c.reportLog());
+            }
+        }
+    }
+
+    /** Prints the number of commits in the history of the current commit,
+     * itself and merged-in branches included, from its reachability
+     * bitmap. */
+    public void logCount() {
+        System.out.println(REACH.count(Refs.read(join(BRANCHES, _head))));
+    }
+
+    /** Like log, except displays information about all commits ever made,
+     * in order of commit id. ARGS may hold --limit N, to print at most N
+     * commits, and --since ID, to start after the commit with id ID, so
+     * that a long history can be read a page at a time. Commits are read
+     * one at a time as they are printed, and the output is buffered.
+     *
+     * @param args are the command and its options. */
+    public void globalLog(String[] args) {
+        long limit = Long.MAX_VALUE;
+        String since = null;
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                System.out.println("Incorrect operands.");
+                return;
+            } else if (args[i].equals("--limit")
+                       && args[i + 1].matches("[0-9]+")) {
+                limit = Long.parseLong(args[i + 1]);
+            } else if (args[i].equals("--since")) {
+                since = resolveCommit(args[i + 1]);
+                if (since == null) {
+                    return;
+                }
+            } else {
+                System.out.println("Incorrect operands.");
+                return;
+            }
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                System.out, StandardCharsets.UTF_8), IO_CHUNK);
+        try {
+            for (Iterator<String> ids = PREFIXES.after(since);
+                 ids.hasNext() && limit > 0; limit -= 1) {
+                String entry = CommitLoader.load(ids.next()).reportLog();
+                out.write(entry);
+                out.write(entry.endsWith("\n") ? "\n" : "\n\n");
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw error("Cannot write log: %s", excp.getMessage());
         }
     }
 
@@ -220,17 +401,32 @@ public class Gitlet implements Serializable {
      *
      * @param msg is the message of the commit input by the user. */
     public void find(String msg) {
-        int count = 0;
-        for (String s: COMMITS.list()) {
-            Commit c = readObject(join(COMMITS, s), Commit.class);
-            if (c.getMessage().equals(msg)) {
-                System.out.println(c.getHash());
-                count++;
-            }
+        printFound(MESSAGES.find(msg));
+    }
+
+    /** Prints out the ids of all commits whose messages contain all of the
+     * words in WORDS, ignoring case, 1 per line.
+     *
+     * @param words are the words to look for. */
+    public void findWords(String words) {
+        printFound(MESSAGES.findWords(words));
+    }
+
+    /** Rebuilds the index of commit messages used by find from all of the
+     * commits, as for repositories made before there was one. */
+    public void rebuildIndex() {
+        MESSAGES.rebuild();
+    }
+
+    /** Prints the commit ids in IDS, or a message if there are none.
+     *
+     * @param ids are the ids of the commits found. */
+    private void printFound(List<String> ids) {
+        for (String id : ids) {
+            System.out.println(id);
         }
-        if (count == 0) {
+        if (ids.isEmpty()) {
             System.out.println("Found no commit with that message.");
-            System.exit(0);
         }
     }
 
@@ -241,14 +437,7 @@ public class Gitlet implements Serializable {
             System.out.println("Not in an initialized Gitlet directory.");
             return;
         }
-        ArrayList<String> branches = new ArrayList<>();
-        if (BRANCHES.exists()) {
-            File[] files = BRANCHES.listFiles();
-            for (File f: files) {
-                branches.add(f.getName());
-            }
-        }
-        branches.remove("HEAD");
+        List<String> branches = branchNames();
         branches.remove(_head);
         branches.add("*" + _head);
         Collections.sort(branches);
@@ -260,20 +449,72 @@ public class Gitlet implements Serializable {
 
         System.out.println("\n=== Staged Files ===");
         if (join(STAGING_AREA, "stage").exists()) {
-            for (String s: stage.getAddFiles().keySet()) {
+            for (String s: new TreeSet<>(stage.getAddFiles().keySet())) {
                 System.out.println(s);
             }
         }
 
         System.out.println("\n=== Removed Files ===");
         if (join(STAGING_AREA, "stage").exists()) {
-            for (String s : stage.getRmFiles()) {
+            for (String s : new TreeSet<>(stage.getRmFiles())) {
                 System.out.println(s);
             }
         }
+        HashMap<String, String> tracked = getCommit().getTracking();
         System.out.println("\n=== Modifications Not Staged For Commit ===");
+        for (String s : unstagedChanges(tracked)) {
+            System.out.println(s);
+        }
 
         System.out.println("\n=== Untracked Files ===");
+        for (String s : untrackedFiles(tracked)) {
+            System.out.println(s);
+        }
+    }
+
+    /** Returns the tracked or staged files whose working versions differ
+     * from the versions that would be committed, marked as modified or
+     * deleted, in order. Files are only read if their size, modification
+     * time or inode have changed since they were last hashed.
+     * @param tracked are the files tracked in the current commit. */
+    private ArrayList<String> unstagedChanges(
+            HashMap<String, String> tracked) {
+        HashMap<String, String> added = stage.getAddFiles();
+        TreeSet<String> names = new TreeSet<>(tracked.keySet());
+        names.addAll(added.keySet());
+        ArrayList<String> result = new ArrayList<>();
+        for (String name : names) {
+            File f = join(cwd, name);
+            String expected = added.containsKey(name)
+                    ? added.get(name) : tracked.get(name);
+            if (!f.isFile()) {
+                if (added.containsKey(name)
+                        || !stage.getRmFiles().contains(name)) {
+                    result.add(name + " (deleted)");
+                }
+            } else if (!STAT_CACHE.hash(f, name).equals(expected)) {
+                result.add(name + " (modified)");
+            }
+        }
+        STAT_CACHE.save();
+        return result;
+    }
+
+    /** Returns the working files that are neither staged for addition nor
+     * tracked, including files staged for removal that were created again,
+     * in order.
+     * @param tracked are the files tracked in the current commit. */
+    private ArrayList<String> untrackedFiles(
+            HashMap<String, String> tracked) {
+        ArrayList<String> result = new ArrayList<>();
+        for (String name : plainFilenamesIn(cwd)) {
+            if (!stage.getAddFiles().containsKey(name)
+                    && (!tracked.containsKey(name)
+                        || stage.getRmFiles().contains(name))) {
+                result.add(name);
+            }
+        }
+        return result;
     }
 
     /** Depending on which type of checkout, it calls the helper function.
@@ -303,8 +544,7 @@ public class Gitlet implements Serializable {
         if (f.exists()) {
             System.out.print("A branch with that name already exists.");
         } else {
-            String s = readContentsAsString(join(BRANCHES, _head));
-            writeContents(join(BRANCHES, name), s);
+            Refs.write(join(BRANCHES, name), Refs.read(join(BRANCHES, _head)));
         }
     }
 
@@ -314,10 +554,12 @@ public class Gitlet implements Serializable {
      *
      * @param name is the filename passed in. */
     public void rmBranch(String name) {
-        if (name.equals(readContentsAsString(join(BRANCHES, "HEAD")))) {
+        if (name.equals(_head)) {
             System.out.print("Cannot remove the current branch.");
-        } else if (!join(BRANCHES, name).delete()) {
+        } else if (!JOURNAL.exists(join(BRANCHES, name))) {
             System.out.print("A branch with that name does not exist.");
+        } else {
+            JOURNAL.delete(join(BRANCHES, name));
         }
     }
 
@@ -330,14 +572,15 @@ public class Gitlet implements Serializable {
      *
      * @param id is the ID of the commit. */
     public void reset(String id) {
-        Commit c = readObject(join(COMMITS, id), Commit.class);
-        if (!join(COMMITS, id).exists() || c == null) {
-            System.out.println("No commit with that id exists.");
-        } else {
-            c.conflicted(cwd, getCommit().getTracking());
+        id = resolveCommit(id);
+        if (id != null) {
+            Commit c = CommitLoader.load(id);
+            if (!getCommit().conflicted(cwd, c)) {
+                return;
+            }
             stage.clear();
-            writeContents(join(BRANCHES, "HEAD"), id);
-            writeObject(join(STAGING_AREA, "stage"), stage);
+            Refs.write(join(BRANCHES, _head), id);
+            saveStage();
         }
     }
 
@@ -345,49 +588,340 @@ public class Gitlet implements Serializable {
      *
      * @param name is the filename passed in. */
     public void merge(String name) {
+        conflicted = false;
         if (!ready2Merge(name)) {
             return;
         }
         Commit cCommit = getCommit();
-        String bCID = readContentsAsString(join(BRANCHES, name));
-        Commit bCommit = readObject(join(COMMITS, bCID), Commit.class);
-        cCommit.conflicted(cwd, bCommit.getTracking());
-
-        updateCTree(cCommit, bCommit, bCID);
+        String bCID = Refs.read(join(BRANCHES, name));
+        Commit bCommit = CommitLoader.load(bCID);
+        if (!updateCTree(cCommit, bCommit, bCID)) {
+            return;
+        }
+        TreeMap<String, String[]> given =
+            Tree.diff(p.getTree(), bCommit.getTree());
+        TreeMap<String, String[]> current =
+            Tree.diff(p.getTree(), cCommit.getTree());
+        for (Map.Entry<String, String[]> e : given.entrySet()) {
+            String[] c = current.get(e.getKey());
+            if ((c == null ? e.getValue()[0] : c[1]) == null
+                && join(cwd, e.getKey()).exists()) {
+                System.out.println("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+                return;
+            }
+        }
+        mergeFiles(given, current);
+        if (conflicted) {
+            System.out.println("Encountered a merge conflict.");
+        } else {
+            commit("Merged " + _head + " with " + name + ".", bCID);
+        }
+    }
 
-        HashMap<String, String> cMap = cCommit.getTracking();
-        HashMap<String, String> bMap = bCommit.getTracking();
-        HashMap<String, String> pMap = p.getTracking();
 
-        for (String s: bMap.keySet()) {
-            if (!pMap.keySet().contains(s)) {
-                checkout(new String[]{"checkout", bCID, "--", s});
-                add(s);
+    /** Prints the differences between two versions of the tracked files as
+     * a unified diff. ARGS are "diff", up to two commit ids, and optionally
+     * "--" and a file or folder to limit the diff to. With no commits, the
+     * working files are compared with the versions that would be committed
+     * (the current commit with the staged changes); with one, with the
+     * versions in that commit; with two, the two commits are compared.
+     * Files are compared by blob hash first, using the tree diff between
+     * commits and stat data for working files, so only files that differ
+     * are read.
+     * @param args is the operands for the diff command. */
+    public void diff(String[] args) {
+        int end = args.length;
+        String path = null;
+        if (end >= 3 && args[end - 2].equals("--")) {
+            path = args[end - 1];
+            end -= 2;
+        }
+        if (end > 3) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        Commit[] commits = new Commit[end - 1];
+        for (int i = 1; i < end; i += 1) {
+            String id = resolveCommit(args[i]);
+            if (id == null) {
+                return;
             }
+            commits[i - 1] = CommitLoader.load(id);
         }
-        for (String s: pMap.keySet()) {
-            if (cMap.containsKey(s) && !bMap.keySet().contains(s)) {
-                if (pMap.get(s).equals(cMap.get(s))) {
-                    rm(s);
+        TreeMap<String, String[]> changed;
+        if (commits.length == 2) {
+            changed = Tree.diff(commits[0].getTree(), commits[1].getTree());
+        } else {
+            changed = workingChanges(commits.length == 1 ? commits[0] : null);
+        }
+        OutputStream out = new BufferedOutputStream(System.out, IO_CHUNK);
+        try {
+            for (Map.Entry<String, String[]> e : changed.entrySet()) {
+                String name = e.getKey();
+                if (path != null && !name.equals(path)
+                    && !name.startsWith(path + Tree.SEPARATOR)) {
+                    continue;
                 }
+                String a = e.getValue()[0], b = e.getValue()[1];
+                Diff.unified(out, name,
+                        a == null ? null : OBJECTS.read(ObjectStore.BLOB, a),
+                        b == null ? null
+                        : commits.length == 2
+                        ? OBJECTS.read(ObjectStore.BLOB, b)
+                        : readContents(join(cwd, name)));
             }
+            out.flush();
+        } catch (IOException excp) {
+            throw error("Cannot write diff: %s", excp.getMessage());
         }
-        if (conflicted) {
-            System.out.println("Encountered a merge conflict.");
+    }
+
+    /** Returns the files whose working versions differ from their versions
+     * in the commit C, or, if C is null, from the versions that would be
+     * committed, each with the blob hash of both versions (null where the
+     * file is missing; the working file's hash if it exists). Untracked
+     * working files are left out.
+     * @param c is a commit, or null. */
+    private TreeMap<String, String[]> workingChanges(Commit c) {
+        HashMap<String, String> expected;
+        if (c != null) {
+            expected = c.getTracking();
         } else {
-            commit("Merged " + _head + " with " + name + ".");
+            expected = new HashMap<>(getCommit().getTracking());
+            expected.putAll(stage.getAddFiles());
+            for (String name : stage.getRmFiles()) {
+                expected.remove(name);
+            }
+        }
+        TreeSet<String> names = new TreeSet<>(expected.keySet());
+        if (c != null) {
+            TreeSet<String> index =
+                new TreeSet<>(getCommit().getTracking().keySet());
+            index.addAll(stage.getAddFiles().keySet());
+            index.removeAll(stage.getRmFiles());
+            names.addAll(index);
+        }
+        TreeMap<String, String[]> result = new TreeMap<>();
+        for (String name : names) {
+            File f = join(cwd, name);
+            String now = f.isFile() ? STAT_CACHE.hash(f, name) : null;
+            if (!Objects.equals(expected.get(name), now)) {
+                result.put(name, new String[] {expected.get(name), now});
+            }
+        }
+        STAT_CACHE.save();
+        return result;
+    }
+
+    /** Prints the setting KEY, or sets it to VALUE if VALUE is not null.
+     * For example, "config blobs.chunked true" stores new blobs as shared,
+     * compressed chunks.
+     * @param key is the name of the setting.
+     * @param value is the new value, or null. */
+    public void config(String key, String value) {
+        if (value != null) {
+            CONFIG.set(key, value);
+        } else if (CONFIG.get(key) != null) {
+            System.out.println(CONFIG.get(key));
+        }
+    }
+
+    /** Moves all loose blobs and commits into the pack file, so that reading
+     * an object no longer needs a file of its own. */
+    public void repack() {
+        OBJECTS.repack();
+    }
+
+
+    /** Removes the commits, trees and blobs that cannot be reached from any
+     * branch or from the staging area, such as the commits left behind by
+     * reset and rm-branch and blobs staged and then replaced. The indexes
+     * that may name removed commits are thrown away to be built again
+     * when next used (the commit graph, its bitmaps and the commit ids),
+     * rebuilt (the message index) or pruned (the path filters). */
+    public void gc() {
+        ArrayList<String> heads = new ArrayList<>();
+        for (String name : branchNames()) {
+            heads.add(Refs.read(join(BRANCHES, name)));
+        }
+        new GarbageCollector(OBJECTS, GRAPH)
+            .collect(heads, stage.getAddFiles().values());
+        GRAPH.clear();
+        REACH.clear();
+        PREFIXES.clear();
+        MESSAGES.rebuild();
+        FILTERS.retain(new HashSet<>(OBJECTS.ids(ObjectStore.COMMIT)));
+    }
+
+    /** Saves DIR, the path of the .gitlet folder of another repository on
+     * this machine, under the remote name NAME. Forward slashes in DIR are
+     * taken as the separator of this system.
+     *
+     * @param name is the name of the remote.
+     * @param dir is the path of its .gitlet folder. */
+    public void addRemote(String name, String dir) {
+        File f = join(REMOTES, name);
+        if (f.exists()) {
+            System.out.println("A remote with that name already exists.");
+            return;
+        }
+        REMOTES.mkdirs();
+        writeContents(f, dir.replace("/", File.separator));
+    }
+
+    /** Forgets the remote NAME.
+     *
+     * @param name is the name of the remote. */
+    public void rmRemote(String name) {
+        if (!join(REMOTES, name).delete()) {
+            System.out.println("A remote with that name does not exist.");
+        }
+    }
+
+    /** Makes the branch BRANCH of the remote NAME point at the current
+     * commit, sending it the commits, trees and blobs it lacks. The branch
+     * is created if need be; otherwise its commit must be in the history
+     * of the current commit.
+     *
+     * @param name is the name of the remote.
+     * @param branch is the name of the branch in the remote. */
+    public void push(String name, String branch) {
+        File dir = remoteFolder(name);
+        if (dir == null) {
+            return;
+        }
+        String head = Refs.read(join(BRANCHES, _head));
+        File ref = join(dir, BRANCHES.getName(), branch);
+        if (ref.isFile() && !REACH.isAncestor(Refs.read(ref), head)) {
+            System.out.println("Please pull down remote changes "
+                    + "before pushing.");
+            return;
+        }
+        Journal journal = new Journal(dir);
+        journal.recover();
+        ObjectStore remote = new ObjectStore(dir);
+        File bundle = join(dir, "bundle");
+        Bundle.write(OBJECTS, remote, head, bundle);
+        List<String> sent = Bundle.read(bundle, remote,
+                                        join(dir, "bundle.blob"));
+        bundle.delete();
+        File ids = join(dir, "commit-ids"), messages = join(dir, "messages");
+        for (String id : sent) {
+            if (ids.isFile()) {
+                new PrefixIndex(ids).add(id);
+            }
+            if (messages.isDirectory()) {
+                new MessageIndex(messages).add(CommitLoader.load(id));
+            }
+        }
+        journal.write(ref, Refs.encode(head));
+        journal.commit();
+    }
+
+    /** Copies the branch BRANCH of the remote NAME, with the commits, trees
+     * and blobs this repository lacks, into the branch NAME/BRANCH. Returns
+     * false, after printing why, if there is no such branch.
+     *
+     * @param name is the name of the remote.
+     * @param branch is the name of the branch in the remote. */
+    public boolean fetch(String name, String branch) {
+        File dir = remoteFolder(name);
+        if (dir == null) {
+            return false;
+        }
+        File ref = join(dir, BRANCHES.getName(), branch);
+        if (!ref.isFile()) {
+            System.out.println("That remote does not have that branch.");
+            return false;
+        }
+        String tip = Refs.read(ref);
+        File bundle = join(GITLET_FOLDER, "bundle");
+        Bundle.write(new ObjectStore(dir), OBJECTS, tip, bundle);
+        for (String id : Bundle.read(bundle, OBJECTS,
+                                     join(GITLET_FOLDER, "bundle.blob"))) {
+            Commit c = CommitLoader.load(id);
+            GRAPH.add(c);
+            PREFIXES.add(id);
+            MESSAGES.add(c);
+        }
+        bundle.delete();
+        Refs.write(join(BRANCHES, name + "/" + branch), tip);
+        return true;
+    }
+
+    /** Fetches the branch BRANCH of the remote NAME and merges it into the
+     * current branch.
+     *
+     * @param name is the name of the remote.
+     * @param branch is the name of the branch in the remote. */
+    public void pull(String name, String branch) {
+        if (fetch(name, branch)) {
+            merge(name + "/" + branch);
         }
     }
 
 
     /* HELPER METHODS */
 
+    /** Returns the .gitlet folder of the remote NAME, or null, after
+     * printing why, if there is no such remote or the folder is missing.
+     * @param name is the name of the remote. */
+    private File remoteFolder(String name) {
+        File f = join(REMOTES, name);
+        if (!f.isFile()) {
+            System.out.println("A remote with that name does not exist.");
+            return null;
+        }
+        File dir = new File(readContentsAsString(f));
+        if (!dir.isAbsolute()) {
+            dir = join(cwd, dir.getPath());
+        }
+        if (!dir.isDirectory()) {
+            System.out.println("Remote directory not found.");
+            return null;
+        }
+        return dir;
+    }
+
+    /** Returns the names of all branches in order, those fetched from
+     * remotes named as REMOTE/BRANCH. */
+    private List<String> branchNames() {
+        ArrayList<String> result = new ArrayList<>();
+        File[] files = BRANCHES.listFiles();
+        if (files == null) {
+            return result;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                for (String name : plainFilenamesIn(f)) {
+                    result.add(f.getName() + "/" + name);
+                }
+            } else if (!f.getName().equals("HEAD")) {
+                result.add(f.getName());
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Saves the staging area. */
+    private void saveStage() {
+        JOURNAL.write(join(STAGING_AREA, "stage"), stage.encode());
+    }
+
+    /** Makes NAME the current branch.
+     * @param name is the name of a branch. */
+    private void setHead(String name) {
+        JOURNAL.write(join(BRANCHES, "HEAD"),
+                      name.getBytes(StandardCharsets.UTF_8));
+        _head = name;
+    }
+
     /** Returns the current commit. */
     public Commit getCommit() {
-        File f = join(BRANCHES, "HEAD");
-        String currentBranch = readContentsAsString(f);
-        String hash = readContentsAsString(join(BRANCHES, currentBranch));
-        return readObject(join(COMMITS, hash), Commit.class);
+        String hash = Refs.read(join(BRANCHES, _head));
+        return CommitLoader.load(hash);
     }
 
     /**
@@ -403,12 +937,14 @@ public class Gitlet implements Serializable {
         } else if (name.equals(_head)) {
             System.out.println("No need to checkout the current branch.\n");
         } else {
-            String branch = readContentsAsString(join(BRANCHES, name));
-            Commit c = readObject(join(COMMITS, branch), Commit.class);
-            curr.conflicted(cwd, c.getTracking());
+            String branch = Refs.read(join(BRANCHES, name));
+            Commit c = CommitLoader.load(branch);
+            if (!curr.conflicted(cwd, c)) {
+                return;
+            }
             stage.clear();
-            writeObject(join(STAGING_AREA, "stage"), stage);
-            writeContents(join(BRANCHES, "HEAD"), name);
+            saveStage();
+            setHead(name);
         }
     }
 
@@ -418,17 +954,15 @@ public class Gitlet implements Serializable {
      * that's already there. The new version of the file isn't staged.
      * @param name is the file name. */
     public void checkoutFile(String name) {
-        HashMap<String, String> trackedFiles = getCommit().getTracking();
-        if (!trackedFiles.containsKey(name)) {
+        String blob = getCommit().get(name);
+        if (blob == null) {
             System.out.println("File does not exist in that commit.");
         } else {
             if (join(cwd, name).exists()) {
                 restrictedDelete(join(cwd, name));
             }
 
-            File blob = join(BLOBS, trackedFiles.get(name));
-            String content = readContentsAsString(blob);
-            writeContents(join(cwd, name), content);
+            OBJECTS.copyBlob(blob, join(cwd, name));
         }
     }
 
@@ -442,34 +976,41 @@ public class Gitlet implements Serializable {
      * @param name is the file name.
      * @param id is the commit id. */
     public void checkoutCommit(String id, String name) {
-        for (String s: COMMITS.list()) {
-            if (s.contains(id)) {
-                id = s;
-                break;
-            }
-        }
-        if (!join(COMMITS, id).exists()) {
-            System.out.println("No commit with that id exists.");
-        } else {
-            Commit c = readObject(join(COMMITS, id), Commit.class);
-            if (!c.getTracking().containsKey(name)) {
+        id = resolveCommit(id);
+        if (id != null) {
+            String b = CommitLoader.load(id).get(name);
+            if (b == null) {
                 System.out.println("File does not exist in that commit.");
             } else {
-                String b = c.getTracking().get(name);
-                writeContents(join(cwd, name), readContents(join(BLOBS, b)));
+                OBJECTS.copyBlob(b, join(cwd, name));
             }
         }
     }
 
+    /** Returns the full id of the one commit whose id starts with ID, or
+     * null, after printing why, if there is no such commit or more than one.
+     * @param id is the commit id, which may be abbreviated. */
+    public String resolveCommit(String id) {
+        List<String> found = PREFIXES.matches(id, 2);
+        if (found.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            return null;
+        } else if (found.size() > 1) {
+            System.out.println("Ambiguous commit id prefix.");
+            return null;
+        }
+        return found.get(0);
+    }
+
     /** Returns true whether the commit is ready to merge.
      * @param name is the file name. */
     public boolean ready2Merge(String name) {
         HashMap<String, String> added = stage.getAddFiles();
         ArrayList<String> removed = stage.getRmFiles();
-        if (!added.isEmpty() && !removed.isEmpty()) {
+        if (!added.isEmpty() || !removed.isEmpty()) {
             System.out.println("You have uncommitted changes.");
             return false;
-        } else if (!join(BRANCHES, name).exists()) {
+        } else if (!JOURNAL.exists(join(BRANCHES, name))) {
             System.out.println("A branch with that name does not exist.");
             return false;
         } else if (name.equals(_head)) {
@@ -479,129 +1020,113 @@ public class Gitlet implements Serializable {
         return true;
     }
 
-    /** Updates the commit tree. Helps check if a given branch is an
-     * ancestor of the current branch. Prints errors if there is any.
+    /** Finds the split point of the current commit and the given branch
+     * from the commit graph, without reading any commits. Returns false,
+     * after printing why, if there is nothing left to merge: either the given
+     * branch is an ancestor of the current branch, or the current branch is
+     * fast-forwarded to the given branch. Both are answered from the
+     * reachability bitmaps of the two tips. Otherwise sets the split point.
      * @param cComm is the current commit.
      * @param bComm is the branch that is being committed.
      * @param id is the commit id of that branch. */
-    public void updateCTree(Commit cComm, Commit bComm,
-                                            String id) {
-        cTree = new HashMap<>();
-
-        cComm = findBranchPath(cComm);
-        bComm = findBranchPath2(bComm);
-
-        String print = "There was an error finding the split point.";
-        if (p == null) {
-            System.out.println(print);
-        }
-        if (p.getHash().equals(cComm.getHash())) {
-            writeContents(join(BRANCHES, _head), bComm);
-            System.out.println("Current branch fast-forwarded.");
-            return;
-        } else if (cTree.containsKey(bComm)) {
-            print = "Given branch is an ancestor of the current branch.";
+    public boolean updateCTree(Commit cComm, Commit bComm, String id) {
+        if (REACH.isAncestor(id, cComm.getHash())) {
+            String print = "Given branch is an ancestor of the current branch.";
             System.out.print(print);
-            return;
+            return false;
+        } else if (REACH.isAncestor(cComm.getHash(), id)) {
+            if (cComm.conflicted(cwd, bComm)) {
+                Refs.write(join(BRANCHES, _head), id);
+                System.out.println("Current branch fast-forwarded.");
+            }
+            return false;
         }
+        String split = GRAPH.mergeBase(cComm.getHash(), id);
+        if (split == null) {
+            System.out.println("There was an error finding the split point.");
+            return false;
+        }
+        p = CommitLoader.load(split);
+        return true;
+    }
 
-        HashMap<String, String> cMap = cComm.getTracking();
-        HashMap<String, String> bMap = cComm.getTracking();
-        for (String s: cMap.keySet()) {
-            String ch = cMap.get(s);
-            String bh = bMap.get(s);
-            if (p.getTracking().containsKey(s)) {
-                String pHash = p.getTracking().get(s);
-                if (bMap.containsKey(s)) {
-                    if (!pHash.equals(bh) && pHash.equals(ch)) {
-                        checkout(new String[]{"checkout", id, "--", s});
-                        add(s);
-                        writeObject(join(STAGING_AREA, "stage"), stage);
-                    }
-                    if (!pHash.equals(bh) || !pHash.equals(ch)
-                            || !bh.equals(ch)) {
-                        mergeFormat2(ch, bh, s);
-                        conflicted = true;
-                    }
-                } else if (!bMap.containsKey(s) && !pHash.equals(ch)) {
-                    mergeFormat(ch, bh, s);
-                    conflicted = true;
+    /** Merges the files changed since the split point, marking conflicts.
+     * Only the files changed in the given branch need be looked at: each is
+     * taken from the given branch if it is unchanged in the current
+     * commit, and is a conflict if both changed it in different ways.
+     * @param given are the files changed in the given branch, each with its
+     *              blob at the split point and in the branch.
+     * @param current are the files changed in the current commit, each
+     *                with its blob at the split point and in the commit. */
+    public void mergeFiles(TreeMap<String, String[]> given,
+                           TreeMap<String, String[]> current) {
+        for (Map.Entry<String, String[]> e : given.entrySet()) {
+            String s = e.getKey();
+            String pHash = e.getValue()[0], bh = e.getValue()[1];
+            String ch = current.containsKey(s) ? current.get(s)[1] : pHash;
+            if (Objects.equals(pHash, ch)) {
+                if (bh == null) {
+                    rm(s);
+                } else {
+                    OBJECTS.copyBlob(bh, join(cwd, s));
+                    stage.add(s, bh);
                 }
+            } else if (!Objects.equals(bh, ch)
+                       && !mergeLines(s, pHash, ch, bh)) {
+                conflicted = true;
             }
         }
+        saveStage();
     }
 
-    /** Returns a commit given the branch. Helps check if a given branch is an
-     * ancestor of the current branch.
-     * @param c is the current commit. */
-    public Commit findBranchPath(Commit c) {
-        Commit comm = readObject(join(COMMITS, c.getHash()), Commit.class);
-        while (c != null && comm != null) {
-            cTree.put(c.getHash(), c);
-            if (c.getParent() != null) {
-                File parent = join(COMMITS, c.getParent().getHash());
-                c = readObject(parent, Commit.class);
-            } else {
-                break;
-            }
+    /** Merges the blobs C and B, both changed from the blob P, line by
+     * line into the working file NAME, and stages the result if no lines
+     * conflict. Returns false if there were conflicts. If the file was
+     * deleted on one side, the whole file is a conflict.
+     * @param name is the file name.
+     * @param p is the blob at the split point, or null.
+     * @param c is the blob in the current commit, or null.
+     * @param b is the blob in the given branch, or null. */
+    private boolean mergeLines(String name, String p, String c, String b) {
+        if (c == null || b == null) {
+            writeConflict(name, c, b);
+            return false;
         }
-        return c;
+        byte[] base = p == null
+            ? new byte[0] : OBJECTS.read(ObjectStore.BLOB, p);
+        boolean clean;
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(join(cwd, name).toPath()), IO_CHUNK)) {
+            clean = ThreeWayMerge.merge(base, OBJECTS.read(ObjectStore.BLOB, c),
+                                        OBJECTS.read(ObjectStore.BLOB, b), out);
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", name, excp.getMessage());
+        }
+        if (clean) {
+            add(name);
+        }
+        return clean;
     }
 
-    /** Returns a commit given the branch. Helps check if a given branch is an
-     * ancestor of the current branch.
-     * @param c is the current commit. */
-    public Commit findBranchPath2(Commit c) {
-        Commit comm = readObject(join(COMMITS, c.getHash()), Commit.class);
-        while (c != null && comm != null) {
-            if (cTree.containsKey(c.getHash())) {
-                p = cTree.get(c.getHash());
-                break;
+    /** Writes the working file NAME with conflict markers around the blobs
+     * C and B, streaming each blob into the file. Either blob may be null
+     * if the file was deleted on that side.
+     * @param name is the file name.
+     * @param c is the blob in the current commit.
+     * @param b is the blob in the given branch. */
+    private void writeConflict(String name, String c, String b) {
+        try (FileChannel out = openForWrite(join(cwd, name))) {
+            out.write(ByteBuffer.wrap(ThreeWayMerge.OURS));
+            if (c != null) {
+                OBJECTS.copyBlob(c, out);
             }
-            if (c.getParent() != null) {
-                File parent = join(COMMITS, c.getParent().getHash());
-                c = readObject(parent, Commit.class);
-            } else {
-                break;
+            out.write(ByteBuffer.wrap(ThreeWayMerge.SEPARATOR));
+            if (b != null) {
+                OBJECTS.copyBlob(b, out);
             }
+            out.write(ByteBuffer.wrap(ThreeWayMerge.THEIRS));
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", name, excp.getMessage());
         }
-        return c;
-    }
-
-    /** One of the Formats for merge.
-     * @param c is the current commit.
-     * @param b is the branch that is being committed.
-     * @param name is the file name. */
-    public void mergeFormat(String c, String b, String name) {
-        File merge = join(cwd, name);
-        byte[] all = concat("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8),
-                readContents(join(BLOBS, c)));
-        all = concat(all, "=======\n".getBytes(StandardCharsets.UTF_8));
-        all = concat(all, ">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
-        writeContents(merge, all);
-    }
-
-    /** Format for merge.
-     * @param c is the current commit.
-     * @param b is the branch that is being committed.
-     * @param name is the file name. */
-    public void mergeFormat2(String c, String b, String name) {
-        File merge = join(cwd, name);
-        byte[] all = concat("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8),
-                readContents(join(BLOBS + c)));
-        all = concat(all, "=======\n".getBytes(StandardCharsets.UTF_8));
-        all = concat(all, readContents(join(BLOBS, b)));
-        all = concat(all, ">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
-        writeContents(merge, all);
-    }
-
-    /** Returns the contents in bytes after concatenating them.
-     * @param toAdd is the content that needs to be added to.
-     * @param knew is the new stuff being added to print out the format. */
-    private byte[] concat(byte[] toAdd, byte[] knew) {
-        byte[] res = new byte[toAdd.length + knew.length];
-        System.arraycopy(toAdd, 0, res, 0, toAdd.length);
-        System.arraycopy(knew, 0, res, toAdd.length, knew.length);
-        return res;
     }
 }
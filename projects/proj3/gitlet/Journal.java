@@ -0,0 +1,194 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+
+/** A write-ahead journal that makes the changes a command makes to the
+ *  small files describing the state of the repository (the branch heads,
+ *  HEAD and the staging area) all-or-nothing. The changes are collected in
+ *  memory while the command runs. When it is done, they are written
+ *  together to the journal file, followed by a checksum, and that one file
+ *  is synced to the disk; only then is each changed file written to a
+ *  temporary file and renamed over the old one, and each removed file
+ *  deleted. Since the journal holds every change, the files need not be
+ *  synced one by one: the gitlet directory is synced once and the journal
+ *  removed. If gitlet stops while the changes are being applied, the
+ *  journal is still there and is applied again when the repository is
+ *  next opened; if it stops before the journal is complete, the checksum
+ *  does not match and the changes are dropped, leaving every file as it
+ *  was. A command therefore costs one sync of the journal, one of the
+ *  directory that holds it and one before the journal is removed, however
+ *  many files it changes.
+ *  Objects are not journalled: each is written to a temporary file in the
+ *  tmp folder, synced and renamed into place, and since objects are named
+ *  by their contents, one written by a command that did not finish is
+ *  merely unreachable. Nor are the indexes (the commit graph and its
+ *  bitmaps, the commit ids, the path filters, the message index and the
+ *  stat cache): each can be built again from the objects, tolerates a
+ *  partial write at its end, and may list commits that no branch reaches,
+ *  so one that is ahead of the branches after a crash is still correct.
+ *  @author Jacky Zhao
+ */
+class Journal {
+    /** Marks a file written by a change. */
+    private static final int WRITE = 1;
+    /** Marks a file removed by a change. */
+    private static final int DELETE = 2;
+    /** Size of the checksum that ends the journal. */
+    private static final int CHECKSUM_BYTES = 4;
+
+    /** The directory holding the journalled files. */
+    private final File _root;
+    /** The journal file. */
+    private final File _file;
+    /** Where each changed file is written before it is renamed. */
+    private final File _tmp;
+    /** The new contents of the files changed so far, in order of change,
+     *  with null for files that are removed. */
+    private final LinkedHashMap<File, byte[]> _pending =
+        new LinkedHashMap<>();
+
+    /** A journal for the files under ROOT, kept in the file journal
+     *  there.
+     * @param root is the gitlet directory. */
+    Journal(File root) {
+        _root = root;
+        _file = join(root, "journal");
+        _tmp = join(root, "journal.tmp");
+    }
+
+    /** Replaces the contents of FILE with CONTENTS when the changes are
+     *  committed.
+     * @param file is a file under the gitlet directory.
+     * @param contents are its new contents. */
+    void write(File file, byte[] contents) {
+        _pending.put(file, contents);
+    }
+
+    /** Removes FILE when the changes are committed.
+     * @param file is a file under the gitlet directory. */
+    void delete(File file) {
+        _pending.put(file, null);
+    }
+
+    /** Returns the contents of FILE as they will be once the changes are
+     *  committed.
+     * @param file is a file under the gitlet directory. */
+    byte[] read(File file) {
+        if (_pending.containsKey(file)) {
+            byte[] contents = _pending.get(file);
+            if (contents == null) {
+                throw new IllegalArgumentException("must be a normal file");
+            }
+            return contents;
+        }
+        return readContents(file);
+    }
+
+    /** Returns true if FILE will exist once the changes are committed.
+     * @param file is a file under the gitlet directory. */
+    boolean exists(File file) {
+        if (_pending.containsKey(file)) {
+            return _pending.get(file) != null;
+        }
+        return file.exists();
+    }
+
+    /** Makes the changes collected so far, all or none of them. */
+    void commit() {
+        if (_pending.isEmpty()) {
+            return;
+        }
+        Codec.Writer out = new Codec.Writer(Codec.JOURNAL);
+        out.writeVarint(_pending.size());
+        for (Map.Entry<File, byte[]> e : _pending.entrySet()) {
+            out.writeString(_root.toPath().relativize(e.getKey().toPath())
+                            .toString());
+            if (e.getValue() == null) {
+                out.writeByte(DELETE);
+            } else {
+                out.writeByte(WRITE);
+                out.writeBytes(e.getValue());
+            }
+        }
+        byte[] body = out.toByteArray();
+        try (FileChannel ch = openForWrite(_file)) {
+            ch.write(ByteBuffer.wrap(body));
+            ch.write(ByteBuffer.allocate(CHECKSUM_BYTES)
+                     .putInt(0, checksum(body, body.length)));
+            ch.force(true);
+        } catch (IOException excp) {
+            throw error("Cannot write journal: %s", excp.getMessage());
+        }
+        syncDirectory(_root);
+        apply(body);
+        _pending.clear();
+    }
+
+    /** Drops the changes collected so far. */
+    void abort() {
+        _pending.clear();
+    }
+
+    /** Finishes the changes of a command that stopped after completing
+     *  its journal, or drops those of one that stopped before. */
+    void recover() {
+        if (!_file.isFile()) {
+            return;
+        }
+        byte[] bytes = readContents(_file);
+        int len = bytes.length - CHECKSUM_BYTES;
+        if (len > 0 && ByteBuffer.wrap(bytes).getInt(len)
+            == checksum(bytes, len)) {
+            apply(Arrays.copyOf(bytes, len));
+        } else {
+            _file.delete();
+        }
+    }
+
+    /** Applies the changes encoded in BODY, the journal without its
+     *  checksum, syncs the gitlet directory once, and then removes the
+     *  journal. Applying the same changes again gives the same files, so
+     *  if the removal is lost in a crash, recover merely repeats them.
+     * @param body is the encoding of the changes. */
+    private void apply(byte[] body) {
+        Codec.Reader in = new Codec.Reader(body, Codec.JOURNAL);
+        try {
+            for (long n = in.readVarint(); n > 0; n -= 1) {
+                File file = join(_root, in.readString());
+                if (in.readByte() == DELETE) {
+                    Files.deleteIfExists(file.toPath());
+                } else {
+                    file.getParentFile().mkdirs();
+                    Files.write(_tmp.toPath(), in.readBytes());
+                    Files.move(_tmp.toPath(), file.toPath(),
+                               StandardCopyOption.REPLACE_EXISTING,
+                               StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            syncDirectory(_root);
+            Files.delete(_file.toPath());
+        } catch (IOException excp) {
+            throw error("Cannot apply journal: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the checksum of the first LEN bytes of BYTES.
+     * @param bytes are the journal's bytes.
+     * @param len is the number of them covered. */
+    private static int checksum(byte[] bytes, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, len);
+        return (int) crc.getValue();
+    }
+}
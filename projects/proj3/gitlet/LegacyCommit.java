@@ -0,0 +1,100 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** The commit format used before parents were stored by hash, in which each
+ *  commit file held a copy of every one of its ancestors. It is only read,
+ *  to convert old repositories to the current format. The fields must keep
+ *  the names and types of the old gitlet.Commit fields.
+ *  @author Jacky Zhao
+ */
+class LegacyCommit implements Serializable {
+    /** The default serialVersionUID of the old gitlet.Commit, which its
+     *  files were written with. */
+    private static final long serialVersionUID = -5829643144976587489L;
+
+    /** The name. */
+    private String hash;
+    /** The whole parent commit. */
+    private LegacyCommit parent;
+    /** The date and time of the commit. */
+    private Date time;
+    /** The log message. */
+    private String message;
+    /** Keeps track of the Commit based on the hash name. */
+    private HashMap<String, String> tracking;
+    /** Unused; kept so the field layout matches the old format. */
+    private boolean conflicted;
+
+    /** Rewrites every commit in the directory DIR that is still in the old
+     *  format in the current encoding, keeping the names of the commits so
+     *  that branches stay valid. Each file is replaced in one step by way
+     *  of the folder TMP, and files already in the current encoding are
+     *  skipped, so a migration that was interrupted is finished by running
+     *  it again.
+     * @param dir is the folder of the commits.
+     * @param tmp is the folder of files being written. */
+    static void migrate(File dir, File tmp) {
+        List<String> ids = plainFilenamesIn(dir);
+        for (String id : ids == null ? List.<String>of() : ids) {
+            File file = join(dir, id);
+            byte[] bytes = readContents(file);
+            if (!Codec.isJavaSerialized(bytes)) {
+                continue;
+            }
+            LegacyCommit old = read(id, bytes);
+            String pHash = old.parent == null ? null : old.parent.hash;
+            Commit c = new Commit(old.hash, pHash, null, old.time,
+                    old.message, old.tracking == null
+                    ? new HashMap<>() : old.tracking);
+            writeAtomically(file, tmp, c.encode());
+        }
+    }
+
+    /** Returns the old-format commit ID, stored as BYTES.
+     * @param id is the name of the commit file.
+     * @param bytes are its contents. */
+    private static LegacyCommit read(String id, byte[] bytes) {
+        try (ObjectInputStream in = new LegacyInputStream(
+                new ByteArrayInputStream(bytes))) {
+            return (LegacyCommit) in.readObject();
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw error("Cannot convert commit %s: %s", id,
+                    excp.getMessage());
+        }
+    }
+
+    /** An object stream that reads old gitlet.Commit objects, recognized
+     *  by their serialVersionUID, as LegacyCommits. */
+    private static class LegacyInputStream extends ObjectInputStream {
+
+        /** A stream reading from IN.
+         * @param in is the underlying stream. */
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+            throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            if (desc.getName().equals(Commit.class.getName())
+                && desc.getSerialVersionUID() == serialVersionUID) {
+                return ObjectStreamClass.lookup(LegacyCommit.class);
+            }
+            return desc;
+        }
+    }
+}
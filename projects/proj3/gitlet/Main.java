@@ -1,23 +1,121 @@
 package gitlet;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Jacky Zhao
  */
 public class Main {
-    /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+    /** Usage: java gitlet.Main [--stats] ARGS, where ARGS contains
+     *  <COMMAND> <OPERAND> .... With the single argument --batch, reads
+     *  one command per line from the standard input instead. With
+     *  --stats, or with the environment variable GITLET_STATS set, prints
+     *  statistics of the run on the standard error at the end. */
     public static void main(String... args) {
+        if (args.length > 0 && args[0].equals("--stats")) {
+            Stats.enable();
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
         if (args.length == 0 || args == null) {
             System.out.println("Please enter a command.");
             return;
         }
+        Stats.phase("open");
+        if (args.length == 1 && args[0].equals("--batch")) {
+            batch();
+        } else {
+            run(new Gitlet(), args);
+        }
+        if (Stats.enabled()) {
+            Stats.report(System.err);
+        }
+    }
+
+    /** Runs the commands on the lines of the standard input against one
+     *  Gitlet, so that the JVM starts and the repository's files and
+     *  indexes are read only once for all of them. Each line is split
+     *  into words as by a shell, and its output is the same as that of
+     *  running java gitlet.Main with those words. If a command fails, its
+     *  exception is reported on the standard error, the repository is read
+     *  again, and the following commands still run. */
+    private static void batch() {
         Gitlet git = new Gitlet();
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        try {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                String[] words = split(line);
+                if (words.length == 0) {
+                    continue;
+                }
+                try {
+                    run(git, words);
+                } catch (RuntimeException excp) {
+                    excp.printStackTrace();
+                    Gitlet.JOURNAL.abort();
+                    git = new Gitlet();
+                }
+            }
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /** Returns the words of LINE. As in a shell, words are separated by
+     *  white space, and characters between double or single quotes belong
+     *  to one word, blanks included.
+     * @param line is one line of a batch. */
+    static String[] split(String line) {
+        ArrayList<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        char quote = 0;
+        for (char ch : line.toCharArray()) {
+            if (quote != 0 && ch == quote) {
+                quote = 0;
+            } else if (quote != 0) {
+                word.append(ch);
+            } else if (ch == '"' || ch == '\'') {
+                quote = ch;
+                word = word == null ? new StringBuilder() : word;
+            } else if (Character.isWhitespace(ch)) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+            } else {
+                word = word == null ? new StringBuilder() : word;
+                word.append(ch);
+            }
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
+    }
+
+    /** Runs the command in ARGS, which contains <COMMAND> <OPERAND> ...,
+     *  against GIT.
+     * @param git is the repository.
+     * @param args are the command and its operands. */
+    static void run(Gitlet git, String... args) {
+        Stats.phase(args[0]);
         if (args[0].equals("init")) {
             validateNumArgs("init", args, 1);
             git.init();
         } else if (args[0].equals("add")) {
-            validateNumArgs("add", args, 2);
-            git.add(args[1]);
+            if (args.length == 2 && args[1].equals("-A")) {
+                git.addAll();
+            } else if (args.length >= 2) {
+                git.add(Arrays.asList(args).subList(1, args.length));
+            } else {
+                validateNumArgs("add", args, 2);
+            }
         } else if (args[0].equals("commit")) {
             validateNumArgs("commit", args, 2);
             git.commit(args[1]);
@@ -25,19 +123,33 @@ public class Main {
             validateNumArgs("rm", args, 2);
             git.rm(args[1]);
         } else if (args[0].equals("log")) {
-            validateNumArgs("log", args, 1);
-            git.log();
+            if (args.length == 2 && args[1].equals("--count")) {
+                git.logCount();
+            } else if (args.length == 3 && args[1].equals("--")) {
+                git.logPath(args[2]);
+            } else {
+                validateNumArgs("log", args, 1);
+                git.log();
+            }
         } else if (args[0].equals("global-log")) {
-            validateNumArgs("global-log", args, 1);
-            git.globalLog();
+            git.globalLog(args);
         } else if (args[0].equals("find")) {
-            validateNumArgs("find", args, 2);
-            git.find(args[1]);
+            if (args.length == 3 && args[1].equals("--token")) {
+                git.findWords(args[2]);
+            } else if (args.length == 2
+                       && args[1].equals("--rebuild-index")) {
+                git.rebuildIndex();
+            } else {
+                validateNumArgs("find", args, 2);
+                git.find(args[1]);
+            }
         } else if (args[0].equals("status")) {
             validateNumArgs("status", args, 1);
             git.status();
         } else if (args[0].equals("checkout")) {
             git.checkout(args);
+        } else if (args[0].equals("diff")) {
+            git.diff(args);
         } else if (args[0].equals("branch")) {
             validateNumArgs("branch", args, 2);
             git.branch(args[1]);
@@ -50,10 +162,39 @@ public class Main {
         } else if (args[0].equals("merge")) {
             validateNumArgs("merge", args, 2);
             git.merge(args[1]);
+        } else if (args[0].equals("config")) {
+            if (args.length == 2) {
+                git.config(args[1], null);
+            } else {
+                validateNumArgs("config", args, 3);
+                git.config(args[1], args[2]);
+            }
+        } else if (args[0].equals("repack")) {
+            validateNumArgs("repack", args, 1);
+            git.repack();
+        } else if (args[0].equals("add-remote")) {
+            validateNumArgs("add-remote", args, 3);
+            git.addRemote(args[1], args[2]);
+        } else if (args[0].equals("rm-remote")) {
+            validateNumArgs("rm-remote", args, 2);
+            git.rmRemote(args[1]);
+        } else if (args[0].equals("push")) {
+            validateNumArgs("push", args, 3);
+            git.push(args[1], args[2]);
+        } else if (args[0].equals("fetch")) {
+            validateNumArgs("fetch", args, 3);
+            git.fetch(args[1], args[2]);
+        } else if (args[0].equals("pull")) {
+            validateNumArgs("pull", args, 3);
+            git.pull(args[1], args[2]);
+        } else if (args[0].equals("gc")) {
+            validateNumArgs("gc", args, 1);
+            git.gc();
         } else {
             System.out.println("No command with that name exists.");
         }
-        return;
+        Stats.phase("journal");
+        Gitlet.JOURNAL.commit();
     }
 
 
@@ -0,0 +1,175 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+
+import static gitlet.Utils.*;
+
+/** Lists of commit ids by commit message, kept up to date as commits are
+ *  made. For each message, the file messages/m/H, where H is the hash of
+ *  the message with its white space collapsed, lists the commits with
+ *  that message, one id per line. Likewise, messages/t/H lists the commits
+ *  whose messages contain the word whose lowercase hash is H. A query
+ *  reads one such file, so its cost depends only on the number of
+ *  results. The file built marks an index that holds every commit; one
+ *  whose building was interrupted is built again. A line cut short by an
+ *  interrupted append is ignored, and the next append starts a new line.
+ *  @author Jacky Zhao
+ */
+class MessageIndex {
+    /** Folder of the whole index. */
+    private final File _dir;
+    /** Folder of the lists by message. */
+    private final File _messages;
+    /** Folder of the lists by word. */
+    private final File _tokens;
+    /** Exists once the index holds every commit. */
+    private final File _built;
+
+    /** An index stored in the folder DIR.
+     * @param dir is the index folder. */
+    MessageIndex(File dir) {
+        _dir = dir;
+        _messages = join(dir, "m");
+        _tokens = join(dir, "t");
+        _built = join(dir, "built");
+    }
+
+    /** Returns the ids of the commits whose message is exactly MSG.
+     * @param msg is a commit message. */
+    List<String> find(String msg) {
+        ensureBuilt();
+        ArrayList<String> result = new ArrayList<>();
+        for (String id : read(join(_messages, sha1(normalize(msg))))) {
+            Commit c = CommitLoader.load(id);
+            if (c != null && c.getMessage().equals(msg)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the ids of the commits whose messages contain all the words
+     *  in WORDS, ignoring case.
+     * @param words are the words to look for. */
+    List<String> findWords(String words) {
+        ensureBuilt();
+        LinkedHashSet<String> result = null;
+        for (String token : tokens(words)) {
+            List<String> ids = read(join(_tokens, sha1(token)));
+            if (result == null) {
+                result = new LinkedHashSet<>(ids);
+            } else {
+                result.retainAll(new HashSet<>(ids));
+            }
+        }
+        return result == null ? new ArrayList<>() : new ArrayList<>(result);
+    }
+
+    /** Adds commit C to the index.
+     * @param c is a new commit. */
+    void add(Commit c) {
+        if (_built.isFile()) {
+            index(c);
+        } else {
+            rebuild();
+        }
+    }
+
+    /** Throws away the index and builds it again from all commits. */
+    void rebuild() {
+        _built.delete();
+        for (File dir : new File[] {_messages, _tokens}) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+        }
+        _messages.mkdirs();
+        _tokens.mkdirs();
+        for (String id : Gitlet.OBJECTS.ids(ObjectStore.COMMIT)) {
+            index(CommitLoader.load(id));
+        }
+        writeContents(_built);
+    }
+
+    /** Builds the index if the repository does not have a whole one. */
+    private void ensureBuilt() {
+        if (!_built.isFile()) {
+            rebuild();
+        }
+    }
+
+    /** Adds the id of C to the list of its message and of its words.
+     * @param c is a commit. */
+    private void index(Commit c) {
+        String line = c.getHash() + "\n";
+        append(join(_messages, sha1(normalize(c.getMessage()))), line);
+        for (String token : tokens(c.getMessage())) {
+            append(join(_tokens, sha1(token)), line);
+        }
+    }
+
+    /** Returns MSG with runs of white space replaced by single blanks and
+     *  without leading and trailing white space.
+     * @param msg is a commit message. */
+    private static String normalize(String msg) {
+        return msg.trim().replaceAll("\\s+", " ");
+    }
+
+    /** Returns the distinct lowercase words in MSG.
+     * @param msg is a commit message. */
+    private static LinkedHashSet<String> tokens(String msg) {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        String lower = msg.toLowerCase(Locale.ROOT);
+        for (String word : lower.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the ids listed in FILE, or an empty list if it does not
+     *  exist. Lines that are not whole ids are skipped.
+     * @param file is a list of ids. */
+    private static List<String> read(File file) {
+        ArrayList<String> result = new ArrayList<>();
+        if (file.isFile()) {
+            for (String id : readContentsAsString(file).split("\n")) {
+                if (id.length() == UID_LENGTH) {
+                    result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Appends LINE to FILE, after a newline if FILE ends with a partial
+     *  line.
+     * @param file is a list of ids.
+     * @param line is an id and a newline. */
+    private static void append(File file, String line) {
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            long len = f.length();
+            if (len > 0) {
+                f.seek(len - 1);
+                if (f.read() != '\n') {
+                    f.write('\n');
+                }
+            }
+            f.write(line.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw error("Cannot write message index: %s", excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** Recently read objects by hash, kept in memory so that reading the same
+ *  commit, tree or blob again within a command (or a batch of commands)
+ *  does not go back to the disk. The cache holds at most a set number of
+ *  objects of at most a set total size, dropping the least recently used
+ *  objects first; sizes are those of the objects' stored forms, which is
+ *  near enough for a bound. Since objects are named by the hash of their
+ *  contents, a cached object never becomes stale. The cache may be used
+ *  by several threads at once.
+ *  @param <V> is the type of the cached objects.
+ *  @author Jacky Zhao
+ */
+class ObjectCache<V> {
+
+    /** A cached object with its size. */
+    private static class Entry<V> {
+        /** The object. */
+        private final V value;
+        /** Its approximate size in bytes. */
+        private final long bytes;
+
+        /** An entry for VALUE, of size BYTES.
+         * @param value is the object.
+         * @param bytes is its size. */
+        Entry(V value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    /** Largest number of objects. */
+    private final int _maxEntries;
+    /** Largest total size of the objects. */
+    private final long _maxBytes;
+    /** The objects by hash, least recently used first. */
+    private final LinkedHashMap<String, Entry<V>> _entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+    /** Total size of the objects. */
+    private long _bytes;
+    /** Number of lookups that found their object. */
+    private long _hits;
+    /** Number of lookups that did not. */
+    private long _misses;
+
+    /** A cache of at most MAXENTRIES objects of total size at most
+     *  MAXBYTES.
+     * @param maxEntries is the largest number of objects.
+     * @param maxBytes is the largest total size. */
+    ObjectCache(int maxEntries, long maxBytes) {
+        _maxEntries = maxEntries;
+        _maxBytes = maxBytes;
+    }
+
+    /** Returns the object with hash ID, or null if it is not cached.
+     * @param id is the full hash of the object. */
+    synchronized V get(String id) {
+        Entry<V> e = _entries.get(id);
+        if (e == null) {
+            _misses += 1;
+            return null;
+        }
+        _hits += 1;
+        return e.value;
+    }
+
+    /** Caches VALUE, of approximate size BYTES, as the object with hash ID.
+     *  Objects larger than a quarter of the cache are not kept, so that
+     *  one of them cannot empty it.
+     * @param id is the full hash of the object.
+     * @param value is the object.
+     * @param bytes is its size. */
+    synchronized void put(String id, V value, long bytes) {
+        if (bytes > _maxBytes / 4 || _entries.containsKey(id)) {
+            return;
+        }
+        _entries.put(id, new Entry<>(value, bytes));
+        _bytes += bytes;
+        Iterator<Entry<V>> eldest = _entries.values().iterator();
+        while (_entries.size() > _maxEntries || _bytes > _maxBytes) {
+            _bytes -= eldest.next().bytes;
+            eldest.remove();
+        }
+    }
+
+    /** Drops every cached object, as when measuring cold reads. */
+    synchronized void clear() {
+        _entries.clear();
+        _bytes = 0;
+    }
+
+    /** Returns the number of lookups that found their object. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Returns the number of lookups that did not find their object. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /** Returns the number of cached objects. */
+    synchronized int size() {
+        return _entries.size();
+    }
+
+    /** Returns the approximate total size of the cached objects. */
+    synchronized long bytes() {
+        return _bytes;
+    }
+}
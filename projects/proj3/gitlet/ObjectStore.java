@@ -0,0 +1,374 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** The blobs, trees and commits of a repository. New objects are written loose,
+ *  one file per object, and the repack command moves them into a pack.
+ *  Objects are looked up first among the loose files, by name, and then in
+ *  the pack index, so no lookup lists a directory. If the setting
+ *  CHUNKED is true, new blobs are instead split into compressed chunks
+ *  that are shared between blobs (see ChunkStore). If the setting DELTA
+ *  is true, a new version of a file may instead be stored as its
+ *  difference from the previous version (see DeltaStore).
+ *  Every new file is written to a temporary file in TMP, synced and
+ *  renamed into place, so that an object never has a partial file.
+ *  @author Jacky Zhao
+ */
+class ObjectStore {
+    /** Type of the contents of a file. */
+    static final int BLOB = 1;
+    /** Type of a serialized commit. */
+    static final int COMMIT = 2;
+    /** Type of a directory listing (see Tree). */
+    static final int TREE = 3;
+    /** Name of the setting that stores new blobs as chunks. */
+    static final String CHUNKED = "blobs.chunked";
+    /** Name of the setting that stores new versions of files as deltas. */
+    static final String DELTA = "blobs.delta";
+    /** Name of the setting that limits the length of delta chains. */
+    static final String DELTA_DEPTH = "blobs.deltaDepth";
+    /** Name of the setting that limits the size of files stored as
+     *  deltas, since both versions are held in memory. */
+    static final String DELTA_MAX_SIZE = "blobs.deltaMaxSize";
+    /** Name of the folder where new objects are written before they are
+     *  renamed into place. */
+    static final String TMP = "tmp";
+    /** Default limit on the length of delta chains. */
+    private static final int DEFAULT_DELTA_DEPTH = 10;
+    /** Default limit on the size of files stored as deltas. */
+    private static final long DEFAULT_DELTA_MAX_SIZE = 1 << 24;
+    /** Largest number of blobs kept in memory. */
+    private static final int BLOB_CACHE_ENTRIES = 1024;
+    /** Largest total size of the blobs kept in memory. */
+    private static final long BLOB_CACHE_BYTES = 1 << 25;
+
+    /** Folder of the loose blobs. */
+    private final File _blobs;
+    /** Folder of the loose commits. */
+    private final File _commits;
+    /** Folder of the loose trees. */
+    private final File _trees;
+    /** Folder of the pack. */
+    private final File _packs;
+    /** The pack. */
+    private final PackFile _pack;
+    /** The chunked blobs. */
+    private final ChunkStore _chunks;
+    /** The blobs stored as deltas. */
+    private final DeltaStore _deltas;
+    /** Folder of the objects being written. */
+    private final File _tmp;
+    /** The settings of the repository. */
+    private final Config _config;
+    /** Blobs recently read whole, as bases of deltas. */
+    private final ObjectCache<byte[]> _blobCache =
+        new ObjectCache<>(BLOB_CACHE_ENTRIES, BLOB_CACHE_BYTES);
+
+    /** The objects of the repository whose .gitlet folder is ROOT.
+     * @param root is the .gitlet folder. */
+    ObjectStore(File root) {
+        _blobs = join(root, "blobs");
+        _commits = join(root, "commits");
+        _trees = join(root, "trees");
+        _packs = join(root, "pack");
+        _tmp = join(root, TMP);
+        _pack = new PackFile(_packs, _tmp);
+        _chunks = new ChunkStore(root);
+        _deltas = new DeltaStore(root, this);
+        _config = new Config(join(root, "config"));
+    }
+
+    /** Returns the settings of the repository, which decide how new blobs
+     *  are stored. */
+    Config config() {
+        return _config;
+    }
+
+    /** Returns the folder of the loose objects of type TYPE.
+     * @param type is the type of the objects. */
+    private File folder(int type) {
+        switch (type) {
+        case BLOB:
+            return _blobs;
+        case TREE:
+            return _trees;
+        default:
+            return _commits;
+        }
+    }
+
+    /** Returns true if the object of type TYPE with hash ID exists.
+     * @param type is the type of the object.
+     * @param id is the full hash of the object. */
+    boolean contains(int type, String id) {
+        if (join(folder(type), id).isFile()) {
+            return true;
+        } else if (type == BLOB
+                   && (_chunks.contains(id) || _deltas.contains(id))) {
+            return true;
+        }
+        int k = _pack.find(id);
+        return k >= 0 && _pack.type(k) == type;
+    }
+
+    /** Returns the contents of the object of type TYPE with hash ID, or null
+     *  if there is none. Blobs are cached, so the result must not be
+     *  changed.
+     * @param type is the type of the object.
+     * @param id is the full hash of the object. */
+    byte[] read(int type, String id) {
+        if (type != BLOB) {
+            return readStored(type, id);
+        }
+        byte[] result = _blobCache.get(id);
+        if (result == null) {
+            result = readStored(type, id);
+            if (result != null) {
+                _blobCache.put(id, result, result.length);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the cache of blobs read whole. */
+    ObjectCache<byte[]> blobCache() {
+        return _blobCache;
+    }
+
+    /** Returns the contents of the object of type TYPE with hash ID as
+     *  stored, or null if there is none.
+     * @param type is the type of the object.
+     * @param id is the full hash of the object. */
+    private byte[] readStored(int type, String id) {
+        Stats.readObject();
+        File loose = join(folder(type), id);
+        if (loose.isFile()) {
+            return readContents(loose);
+        } else if (type == BLOB && _chunks.contains(id)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            _chunks.copy(id, Channels.newChannel(out));
+            return out.toByteArray();
+        } else if (type == BLOB && _deltas.contains(id)) {
+            return _deltas.read(id);
+        }
+        byte[] result = _pack.read(type, id);
+        if (result != null) {
+            Stats.read(result.length);
+        }
+        return result;
+    }
+
+    /** Saves CONTENTS as the object of type TYPE with hash ID, unless it is
+     *  already stored.
+     * @param type is the type of the object.
+     * @param id is the full hash of the object.
+     * @param contents are the contents of the object. */
+    void write(int type, String id, byte[] contents) {
+        if (!contains(type, id)) {
+            Stats.writeObject();
+            folder(type).mkdirs();
+            writeAtomically(join(folder(type), id), _tmp, contents);
+        }
+    }
+
+    /** Saves the contents of FILE as the blob with hash ID, unless it is
+     *  already stored, copying the file without reading it into memory.
+     * @param id is the hash of the contents of FILE.
+     * @param file is a working file. */
+    void writeBlob(String id, File file) {
+        writeBlob(id, file, null);
+    }
+
+    /** Saves the contents of FILE as the blob with hash ID, unless it is
+     *  already stored. If deltas are on and BASE, the hash of the previous
+     *  version of the file, is not null, the blob may be stored as a delta
+     *  from BASE.
+     * @param id is the hash of the contents of FILE.
+     * @param file is a working file.
+     * @param base is the hash of the previous version, or null. */
+    void writeBlob(String id, File file, String base) {
+        if (contains(BLOB, id)) {
+            return;
+        }
+        Stats.writeObject();
+        if (base != null && _config.getBoolean(DELTA, false)
+                   && file.length() <= _config.getLong(DELTA_MAX_SIZE,
+                                                       DEFAULT_DELTA_MAX_SIZE)
+                   && _deltas.write(id, file, base,
+                           (int) _config.getLong(DELTA_DEPTH,
+                                                 DEFAULT_DELTA_DEPTH))) {
+            return;
+        } else if (_config.getBoolean(CHUNKED, false)) {
+            _chunks.write(id, file);
+        } else {
+            copyAtomically(file, join(_blobs, id), _tmp);
+        }
+    }
+
+    /** Copies the contents of the blob with hash ID to OUT, in pieces.
+     * @param id is the full hash of the blob.
+     * @param out is where the contents go. */
+    void copyBlob(String id, WritableByteChannel out) {
+        File loose = join(_blobs, id);
+        if (loose.isFile()) {
+            try (FileChannel in = FileChannel.open(loose.toPath(),
+                    StandardOpenOption.READ)) {
+                transfer(in, 0, in.size(), out);
+            } catch (IOException excp) {
+                throw error("Cannot read blob %s: %s", id, excp.getMessage());
+            }
+        } else if (_chunks.contains(id)) {
+            _chunks.copy(id, out);
+        } else if (_deltas.contains(id)) {
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(read(BLOB, id));
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+            } catch (IOException excp) {
+                throw error("Cannot write blob %s: %s", id,
+                        excp.getMessage());
+            }
+        } else if (!_pack.copy(BLOB, id, out)) {
+            throw error("No blob %s.", id);
+        }
+    }
+
+    /** Writes the contents of the blob with hash ID to FILE, creating or
+     *  overwriting it, without reading the contents into memory.
+     * @param id is the full hash of the blob.
+     * @param file is the file to write. */
+    void copyBlob(String id, File file) {
+        try (FileChannel out = openForWrite(file)) {
+            copyBlob(id, out);
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", file.getName(),
+                    excp.getMessage());
+        }
+    }
+
+    /** Returns the hashes of all objects of type TYPE, in sorted order.
+     * @param type is the type of the objects. */
+    List<String> ids(int type) {
+        TreeSet<String> result = new TreeSet<>(_pack.ids(type));
+        List<String> loose = plainFilenamesIn(folder(type));
+        if (loose != null) {
+            result.addAll(loose);
+        }
+        if (type == BLOB && _chunks.ids() != null) {
+            result.addAll(_chunks.ids());
+        }
+        if (type == BLOB && _deltas.ids() != null) {
+            result.addAll(_deltas.ids());
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the hash of the blob that the blob ID is stored as a delta
+     *  from, or null if it is stored whole.
+     * @param id is the full hash of the blob. */
+    String deltaBase(String id) {
+        return _deltas.contains(id) ? _deltas.base(id) : null;
+    }
+
+    /** Returns a bitmap with a bit set for each object in the pack, by
+     *  position in the pack, for sweep to clear those to remove. */
+    BitSet packed() {
+        BitSet result = new BitSet(_pack.size());
+        result.set(0, _pack.size());
+        return result;
+    }
+
+    /** Removes the objects whose hashes are at the positions not set in
+     *  LIVE in the sorted list IDS of all objects of type TYPE, along with
+     *  any chunks no longer used, except that those in the pack are only
+     *  cleared in PACKED, so that the pack is rewritten once, by
+     *  retainPacked, for all types. Returns the number of objects removed.
+     * @param type is the type of the objects.
+     * @param ids are the hashes of all objects of that type, sorted.
+     * @param live marks the objects to keep.
+     * @param packed marks the objects in the pack to keep. */
+    int sweep(int type, List<String> ids, BitSet live, BitSet packed) {
+        int removed = 0;
+        for (int i = live.nextClearBit(0); i < ids.size();
+             i = live.nextClearBit(i + 1)) {
+            String id = ids.get(i);
+            join(folder(type), id).delete();
+            if (type == BLOB) {
+                _chunks.delete(id);
+                _deltas.delete(id);
+            }
+            removed += 1;
+        }
+        for (int k = 0; k < _pack.size(); k += 1) {
+            int i = _pack.type(k) == type
+                ? Collections.binarySearch(ids, _pack.id(k)) : -1;
+            if (i >= 0 && !live.get(i)) {
+                packed.clear(k);
+            }
+        }
+        if (type == BLOB) {
+            _chunks.sweep();
+        }
+        return removed;
+    }
+
+    /** Rewrites the pack with only the objects set in KEEP, by position in
+     *  the pack, unless that is all of them.
+     * @param keep marks the objects to keep. */
+    void retainPacked(BitSet keep) {
+        _pack.retain(keep);
+    }
+
+    /** Removes the temporary files left in TMP by writes that did not
+     *  finish. */
+    void clearTemporary() {
+        File[] files = _tmp.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+    }
+
+    /** Moves all loose objects into the pack, and returns how many were
+     *  moved. The loose files are deleted only once the pack index
+     *  that covers them is in place. */
+    int repack() {
+        ArrayList<File> files = new ArrayList<>();
+        ArrayList<Integer> types = new ArrayList<>();
+        for (int type : new int[] {BLOB, TREE, COMMIT}) {
+            List<String> loose = plainFilenamesIn(folder(type));
+            if (loose == null) {
+                continue;
+            }
+            for (String id : loose) {
+                files.add(join(folder(type), id));
+                types.add(type);
+            }
+        }
+        if (files.isEmpty()) {
+            return 0;
+        }
+        _packs.mkdirs();
+        _pack.append(files, types);
+        for (File f : files) {
+            f.delete();
+        }
+        return files.size();
+    }
+}
@@ -0,0 +1,464 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** An append-only file of objects together with a sorted index of their
+ *  hashes. The pack holds, for each object, a one-byte type, an eight-byte
+ *  length and the contents. The index holds the name of its pack and a
+ *  fan-out table giving, for each first byte of a hash, the number of
+ *  objects whose hash starts with a smaller or equal byte, followed by the
+ *  sorted hashes, their types and the positions of their records in the
+ *  pack. Both files are read through memory maps, so finding an object is
+ *  a binary search over one fan-out bucket.
+ *  A pack is only appended to, and a rewritten pack gets a new name, so
+ *  renaming its index into place is the one step that switches from the
+ *  old pack to the new: after a crash the index in place always describes
+ *  the pack it names.
+ *  @author Jacky Zhao
+ */
+class PackFile {
+    /** Marks the start of a pack file. */
+    private static final int PACK_MAGIC = 0x47504b31;
+    /** Marks the start of an index file. */
+    private static final int INDEX_MAGIC = 0x47494432;
+    /** Number of buckets in the fan-out table. */
+    private static final int FANOUT = 256;
+    /** Number of bytes in a binary hash. */
+    static final int ID_BYTES = UID_LENGTH / 2;
+    /** Bytes in a pack header: the magic number. */
+    private static final int PACK_HEADER = Integer.BYTES;
+    /** Bytes before the contents of a record: the type and the length. */
+    private static final int RECORD_HEADER = 1 + Long.BYTES;
+    /** Bytes in an index header: the magic number, the name of the pack
+     *  and the fan-out table. */
+    private static final int INDEX_HEADER =
+        Integer.BYTES + ID_BYTES + Integer.BYTES * FANOUT;
+
+    /** Folder of the pack and its index. */
+    private final File _dir;
+    /** The index of the pack. */
+    private final File _index;
+    /** Folder of the files being written. */
+    private final File _tmp;
+    /** The name of the pack, as a binary hash, or null if there is no
+     *  pack or the index has not been read yet. */
+    private byte[] _name;
+    /** The mapped index, or null if it has not been read yet. */
+    private ByteBuffer _map;
+    /** The mapped pack, or null if it has not been mapped yet. */
+    private ByteBuffer _data;
+    /** The number of objects in the pack. */
+    private int _size;
+
+    /** A pack stored in DIR, whose index is objects.idx, writing new
+     *  indexes by way of TMP.
+     * @param dir is the folder holding the pack.
+     * @param tmp is the folder of files being written. */
+    PackFile(File dir, File tmp) {
+        _dir = dir;
+        _index = join(dir, "objects.idx");
+        _tmp = tmp;
+    }
+
+    /** Returns the number of objects in the pack. */
+    int size() {
+        load();
+        return _size;
+    }
+
+    /** Returns the position of the object with hash ID in the index, or -1
+     *  if it is not in the pack.
+     * @param id is the full hash of the object. */
+    int find(String id) {
+        load();
+        if (_size == 0 || id.length() != UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = toBytes(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the type of the object at index position K.
+     * @param k is a position in the index. */
+    int type(int k) {
+        return _map.get(typesStart() + k);
+    }
+
+    /** Returns the hash of the object at index position K.
+     * @param k is a position in the index. */
+    String id(int k) {
+        byte[] id = new byte[ID_BYTES];
+        _map.get(INDEX_HEADER + k * ID_BYTES, id);
+        return toHex(id);
+    }
+
+    /** Returns the contents of the object with hash ID and type TYPE, or
+     *  null if there is no such object in the pack.
+     * @param type is the type of the object.
+     * @param id is the full hash of the object. */
+    byte[] read(int type, String id) {
+        int k = find(id);
+        if (k < 0 || type(k) != type) {
+            return null;
+        }
+        ByteBuffer data = data();
+        long off = offset(k);
+        if (data != null) {
+            byte[] result = new byte[(int) data.getLong((int) off + 1)];
+            data.get((int) off + RECORD_HEADER, result);
+            return result;
+        }
+        try (FileChannel ch = FileChannel.open(pack(_name).toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(RECORD_HEADER);
+            ch.read(head, off);
+            ByteBuffer body = ByteBuffer.allocate((int) head.getLong(1));
+            while (body.hasRemaining()) {
+                if (ch.read(body, off + RECORD_HEADER + body.position()) < 0) {
+                    throw error("Truncated packed object %s.", id);
+                }
+            }
+            return body.array();
+        } catch (IOException excp) {
+            throw error("Cannot read packed object %s: %s", id,
+                    excp.getMessage());
+        }
+    }
+
+    /** Copies the contents of the object with hash ID and type TYPE to OUT
+     *  straight from the pack file, without holding them in memory.
+     *  Returns false if there is no such object in the pack.
+     * @param type is the type of the object.
+     * @param id is the full hash of the object.
+     * @param out is where the contents go. */
+    boolean copy(int type, String id, WritableByteChannel out) {
+        int k = find(id);
+        if (k < 0 || type(k) != type) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(pack(_name).toPath(),
+                StandardOpenOption.READ)) {
+            long off = offset(k);
+            ByteBuffer head = ByteBuffer.allocate(RECORD_HEADER);
+            ch.read(head, off);
+            transfer(ch, off + RECORD_HEADER, head.getLong(1), out);
+            return true;
+        } catch (IOException excp) {
+            throw error("Cannot read packed object %s: %s", id,
+                    excp.getMessage());
+        }
+    }
+
+    /** Returns the hashes of all objects of type TYPE in the pack, in
+     *  sorted order.
+     * @param type is the type of the objects. */
+    List<String> ids(int type) {
+        load();
+        ArrayList<String> result = new ArrayList<>();
+        for (int k = 0; k < _size; k += 1) {
+            if (type(k) == type) {
+                result.add(id(k));
+            }
+        }
+        return result;
+    }
+
+    /** Appends the objects in the files FILES, whose types are TYPES, to
+     *  the pack, naming each by its file name, and rewrites the index. The
+     *  appended records are forced to disk and the old index stays in
+     *  place until the new one is complete, so an interrupted append
+     *  leaves the pack usable, with records past the end of those indexed.
+     *  Objects already in the pack are skipped. If there is no pack yet,
+     *  one is made with a new name.
+     * @param files are the loose objects.
+     * @param types are their types. */
+    void append(List<File> files, List<Integer> types) {
+        load();
+        int n = _size;
+        byte[][] ids = new byte[n + files.size()][];
+        int[] kinds = new int[ids.length];
+        long[] offsets = new long[ids.length];
+        for (int k = 0; k < n; k += 1) {
+            ids[k] = toBytes(id(k));
+            kinds[k] = type(k);
+            offsets[k] = offset(k);
+        }
+        byte[] name = _name != null ? _name : newName(files);
+        File pack = pack(name);
+        try {
+            boolean fresh = !pack.exists();
+            long pos = fresh ? PACK_HEADER : pack.length();
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(
+                        pack.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND)))) {
+                if (fresh) {
+                    out.writeInt(PACK_MAGIC);
+                }
+                for (int i = 0; i < files.size(); i += 1) {
+                    File f = files.get(i);
+                    if (find(f.getName()) >= 0) {
+                        continue;
+                    }
+                    long len = f.length();
+                    out.writeByte(types.get(i));
+                    out.writeLong(len);
+                    Files.copy(f.toPath(), out);
+                    ids[n] = toBytes(f.getName());
+                    kinds[n] = types.get(i);
+                    offsets[n] = pos;
+                    n += 1;
+                    pos += RECORD_HEADER + len;
+                }
+            }
+            try (FileChannel ch = FileChannel.open(pack.toPath(),
+                    StandardOpenOption.WRITE)) {
+                ch.force(true);
+            }
+            syncDirectory(_dir);
+            writeIndex(name, Arrays.copyOf(ids, n), kinds, offsets);
+        } catch (IOException excp) {
+            throw error("Cannot write pack: %s", excp.getMessage());
+        }
+        _map = null;
+        _data = null;
+    }
+
+    /** Rewrites the pack without the objects whose index positions are not
+     *  in KEEP, copying the kept records into a pack file with a new name.
+     *  Once that is on disk, an index naming it is renamed into place, and
+     *  only then are the old pack and any packs left by interrupted
+     *  rewrites deleted, which is also done when all objects are kept.
+     *  Returns the number of objects dropped.
+     * @param keep holds the index positions of the objects to keep. */
+    int retain(BitSet keep) {
+        load();
+        int n = keep.cardinality();
+        if (n == _size) {
+            if (_name != null) {
+                removeUnused(_name);
+            }
+            return 0;
+        }
+        Integer[] kept = new Integer[n];
+        for (int k = keep.nextSetBit(0), i = 0; k >= 0 && k < _size;
+             k = keep.nextSetBit(k + 1), i += 1) {
+            kept[i] = k;
+        }
+        Arrays.sort(kept, (a, b) -> Long.compare(offset(a), offset(b)));
+        byte[][] ids = new byte[n][];
+        int[] kinds = new int[n];
+        long[] offsets = new long[n];
+        ArrayList<byte[]> keptIds = new ArrayList<>();
+        for (int k : kept) {
+            keptIds.add(toBytes(id(k)));
+        }
+        byte[] name = newName(keptIds);
+        try (FileChannel in = FileChannel.open(pack(_name).toPath(),
+                StandardOpenOption.READ);
+             FileChannel out = openForWrite(pack(name))) {
+            out.write(ByteBuffer.allocate(PACK_HEADER)
+                      .putInt(0, PACK_MAGIC));
+            long pos = PACK_HEADER;
+            ByteBuffer head = ByteBuffer.allocate(RECORD_HEADER);
+            for (int i = 0; i < n; i += 1) {
+                int k = kept[i];
+                head.clear();
+                in.read(head, offset(k));
+                long len = RECORD_HEADER + head.getLong(1);
+                transfer(in, offset(k), len, out);
+                ids[i] = toBytes(id(k));
+                kinds[i] = type(k);
+                offsets[i] = pos;
+                pos += len;
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            throw error("Cannot write pack: %s", excp.getMessage());
+        }
+        syncDirectory(_dir);
+        writeIndex(name, ids, kinds, offsets);
+        int dropped = _size - n;
+        _map = null;
+        _data = null;
+        _name = null;
+        removeUnused(name);
+        return dropped;
+    }
+
+    /** Writes an index for the pack NAME holding the N objects with hashes
+     *  IDS, types TYPES and record positions OFFSETS, replacing the current
+     *  index in one step.
+     * @param name is the name of the pack.
+     * @param ids are the hashes of the objects.
+     * @param types are the types of the objects.
+     * @param offsets are the positions of the records in the pack. */
+    private void writeIndex(byte[] name, byte[][] ids, int[] types,
+                            long[] offsets) {
+        int n = ids.length;
+        Integer[] order = new Integer[n];
+        for (int k = 0; k < n; k += 1) {
+            order[k] = k;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(ids[a], ids[b]));
+        int[] fan = new int[FANOUT];
+        for (byte[] id : ids) {
+            fan[id[0] & 0xff] += 1;
+        }
+        ByteBuffer out = ByteBuffer.allocate(INDEX_HEADER
+                + n * (ID_BYTES + 1 + Long.BYTES));
+        out.putInt(INDEX_MAGIC);
+        out.put(name);
+        int total = 0;
+        for (int b = 0; b < FANOUT; b += 1) {
+            total += fan[b];
+            out.putInt(total);
+        }
+        for (int k : order) {
+            out.put(ids[k]);
+        }
+        for (int k : order) {
+            out.put((byte) types[k]);
+        }
+        for (int k : order) {
+            out.putLong(offsets[k]);
+        }
+        writeAtomically(_index, _tmp, out.array());
+    }
+
+    /** Returns the file of the pack NAME.
+     * @param name is the name of a pack, as a binary hash. */
+    private File pack(byte[] name) {
+        return join(_dir, "pack-" + toHex(name) + ".pack");
+    }
+
+    /** Returns a name for a new pack holding the objects IDS, which
+     *  differs from the name of the current pack.
+     * @param ids are the hashes, or the files named by the hashes, of the
+     *            objects in the new pack. */
+    private byte[] newName(List<?> ids) {
+        ArrayList<Object> parts = new ArrayList<>();
+        parts.add(_name == null ? new byte[0] : _name);
+        for (Object id : ids) {
+            parts.add(id instanceof File ? ((File) id).getName() : id);
+        }
+        return toBytes(sha1(parts));
+    }
+
+    /** Deletes the packs in the folder other than the pack NAME.
+     * @param name is the name of the pack in use. */
+    private void removeUnused(byte[] name) {
+        String keep = pack(name).getName();
+        File[] files = _dir.listFiles();
+        for (File f : files == null ? new File[0] : files) {
+            if (f.getName().startsWith("pack-")
+                && !f.getName().equals(keep)) {
+                f.delete();
+            }
+        }
+    }
+
+    /** Returns the pack, mapped the first time it is asked for and then
+     *  shared by all reads, or null if it is too large for one map, in
+     *  which case each read reads its record from the file. */
+    private synchronized ByteBuffer data() {
+        if (_data == null) {
+            load();
+            try (FileChannel ch = FileChannel.open(pack(_name).toPath(),
+                    StandardOpenOption.READ)) {
+                if (ch.size() > Integer.MAX_VALUE) {
+                    return null;
+                }
+                _data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            } catch (IOException excp) {
+                throw error("Cannot read pack: %s", excp.getMessage());
+            }
+        }
+        return _data;
+    }
+
+    /** Maps the index, if that has not been done yet. */
+    private synchronized void load() {
+        if (_map != null) {
+            return;
+        }
+        if (!_index.isFile()) {
+            _map = ByteBuffer.allocate(INDEX_HEADER);
+            _name = null;
+            _size = 0;
+            return;
+        }
+        try (FileChannel ch = FileChannel.open(_index.toPath(),
+                StandardOpenOption.READ)) {
+            _map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw error("Cannot read pack index: %s", excp.getMessage());
+        }
+        if (_map.capacity() < INDEX_HEADER || _map.getInt(0) != INDEX_MAGIC) {
+            throw error("Corrupted pack index.");
+        }
+        _name = new byte[ID_BYTES];
+        _map.get(Integer.BYTES, _name);
+        _size = fanout(FANOUT - 1);
+    }
+
+    /** Returns entry B of the fan-out table.
+     * @param b is the first byte of a hash. */
+    private int fanout(int b) {
+        return _map.getInt(Integer.BYTES + ID_BYTES + Integer.BYTES * b);
+    }
+
+    /** Returns the position in the index of the first type byte. */
+    private int typesStart() {
+        return INDEX_HEADER + _size * ID_BYTES;
+    }
+
+    /** Returns the position in the pack of the record at index position K.
+     * @param k is a position in the index. */
+    private long offset(int k) {
+        return _map.getLong(typesStart() + _size + k * Long.BYTES);
+    }
+
+    /** Compares the hash at index position K with KEY as unsigned bytes.
+     * @param k is a position in the index.
+     * @param key is a binary hash. */
+    private int compareId(int k, byte[] key) {
+        int base = INDEX_HEADER + k * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = Integer.compare(_map.get(base + i) & 0xff,
+                    key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+}
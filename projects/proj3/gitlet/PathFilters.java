@@ -0,0 +1,295 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+
+/** For each commit, a Bloom filter of the paths it changed from its first
+ *  parent, so that finding the commits that touched a path need only read
+ *  the commits whose filters allow it. A path is in the filter along with
+ *  each directory above it, so a directory can be looked for too. Each
+ *  path sets HASHES bits, chosen by double hashing, in a filter of
+ *  BITS_PER_PATH bits per path; a filter says a path may have changed if
+ *  all its bits are set, and is wrong about one that did not at most
+ *  about one time in a hundred. Commits that change more than MAX_PATHS
+ *  paths get an empty filter, which allows every path.
+ *
+ *  The filters are made as commits are made, and for older commits the
+ *  first time they are needed. The file is a magic number followed by one
+ *  record per commit: its binary hash, the length of its filter as an int,
+ *  the filter, the length again and a CRC-32 of what precedes it in the
+ *  record. The file is only appended to, without reading it: the trailer
+ *  of the last record locates its start, so checking that the file ends
+ *  with a whole record takes one read, and only when it does not is the
+ *  file scanned and cut after the last good record. Reading stops at the
+ *  first bad record. A file with the wrong magic number is started over,
+ *  since every filter can be made again.
+ *  @author Jacky Zhao
+ */
+class PathFilters {
+    /** Marks the start of a filter file. */
+    private static final int MAGIC = 0x50464c31;
+    /** Bytes in a record besides the filter. */
+    private static final int OVERHEAD =
+        PackFile.ID_BYTES + 3 * Integer.BYTES;
+    /** Bits of a filter per path in it. */
+    private static final int BITS_PER_PATH = 10;
+    /** Number of bits each path sets. */
+    private static final int HASHES = 7;
+    /** Smallest filter, in bytes. */
+    private static final int MIN_BYTES = 8;
+    /** Largest number of paths put in a filter. */
+    private static final int MAX_PATHS = 512;
+    /** Offset basis of the FNV-1a hash. */
+    private static final int FNV_BASIS = 0x811c9dc5;
+    /** Prime of the FNV-1a hash. */
+    private static final int FNV_PRIME = 0x01000193;
+    /** Mask of the low 32 bits of a long. */
+    private static final long INT_MASK = 0xffffffffL;
+
+    /** The filter file. */
+    private final File _file;
+    /** The filters by commit hash, or null if not yet read. */
+    private HashMap<String, byte[]> _filters;
+
+    /** Filters stored in FILE.
+     * @param file is the filter file. */
+    PathFilters(File file) {
+        _file = file;
+    }
+
+    /** Returns the filter of the commit with hash ID, or null if it has
+     *  none yet.
+     * @param id is the full hash of a commit. */
+    byte[] get(String id) {
+        load();
+        return _filters.get(id);
+    }
+
+    /** Makes and saves the filter of the commit with hash ID, which changed
+     *  the files PATHS, and returns it.
+     * @param id is the full hash of a commit.
+     * @param paths are the paths of the changed files. */
+    byte[] add(String id, Collection<String> paths) {
+        HashSet<String> all = new HashSet<>();
+        for (String path : paths) {
+            all.add(path);
+            for (int k = path.lastIndexOf(Tree.SEPARATOR); k > 0;
+                 k = path.lastIndexOf(Tree.SEPARATOR, k - 1)) {
+                all.add(path.substring(0, k));
+            }
+        }
+        byte[] filter;
+        if (all.size() > MAX_PATHS) {
+            filter = new byte[0];
+        } else {
+            filter = new byte[Math.max(MIN_BYTES,
+                    (all.size() * BITS_PER_PATH + Byte.SIZE - 1) / Byte.SIZE)];
+            for (String path : all) {
+                long[] h = hashes(path);
+                for (int i = 0; i < HASHES; i += 1) {
+                    int bit = bit(h, i, filter.length);
+                    filter[bit / Byte.SIZE] |= 1 << (bit % Byte.SIZE);
+                }
+            }
+        }
+        if (_filters != null) {
+            _filters.put(id, filter);
+        }
+        byte[] record = record(toBytes(id), filter);
+        try (RandomAccessFile f = new RandomAccessFile(_file, "rw")) {
+            f.seek(end(f));
+            f.write(record);
+            Stats.write(record.length);
+        } catch (IOException excp) {
+            throw error("Cannot write path filters: %s", excp.getMessage());
+        }
+        return filter;
+    }
+
+    /** Returns the record of the commit with binary hash ID and filter
+     *  FILTER, as stored in the file.
+     * @param id is the binary hash of a commit.
+     * @param filter is its filter. */
+    private static byte[] record(byte[] id, byte[] filter) {
+        ByteBuffer out = ByteBuffer.allocate(OVERHEAD + filter.length);
+        out.put(id).putInt(filter.length).put(filter)
+            .putInt(filter.length);
+        out.putInt(checksum(out.array(), out.position()));
+        return out.array();
+    }
+
+    /** Returns the position after the last whole record in F, the open
+     *  filter file, cutting off anything after it and writing the magic
+     *  number first if F does not start with it.
+     * @param f is the filter file. */
+    private static long end(RandomAccessFile f) throws IOException {
+        long len = f.length();
+        if (len < Integer.BYTES || readInt(f, 0) != MAGIC) {
+            f.setLength(0);
+            f.writeInt(MAGIC);
+            return Integer.BYTES;
+        } else if (len == Integer.BYTES) {
+            return len;
+        }
+        if (len >= Integer.BYTES + OVERHEAD) {
+            long size = readInt(f, len - 2 * Integer.BYTES) & INT_MASK;
+            long start = len - OVERHEAD - size;
+            if (start >= Integer.BYTES) {
+                byte[] last = new byte[(int) (len - start)];
+                f.seek(start);
+                f.readFully(last);
+                if (scan(ByteBuffer.wrap(last), null) == last.length) {
+                    return len;
+                }
+            }
+        }
+        byte[] all = new byte[(int) len];
+        f.seek(0);
+        f.readFully(all);
+        long good = scan(ByteBuffer.wrap(all, Integer.BYTES,
+                                         all.length - Integer.BYTES), null);
+        f.setLength(good);
+        return good;
+    }
+
+    /** Returns the int at position POS of F.
+     * @param f is an open file.
+     * @param pos is a position in it. */
+    private static int readInt(RandomAccessFile f, long pos)
+        throws IOException {
+        f.seek(pos);
+        return f.readInt();
+    }
+
+    /** Reads the records in IN up to the first that is cut short or does
+     *  not match its checksum, putting each filter in FILTERS by commit
+     *  hash unless FILTERS is null, and returns the position in IN after
+     *  the last good record.
+     * @param in holds records, starting at its position.
+     * @param filters is where the filters go, or null. */
+    private static int scan(ByteBuffer in,
+                            HashMap<String, byte[]> filters) {
+        byte[] id = new byte[PackFile.ID_BYTES];
+        int good = in.position();
+        while (in.remaining() >= OVERHEAD) {
+            int start = in.position();
+            in.get(id);
+            int len = in.getInt();
+            if (len < 0 || len > in.remaining() - 2 * Integer.BYTES) {
+                break;
+            }
+            byte[] filter = new byte[len];
+            in.get(filter);
+            if (in.getInt() != len
+                || in.getInt() != checksum(in.array(),
+                        in.arrayOffset() + start,
+                        OVERHEAD - Integer.BYTES + len)) {
+                break;
+            }
+            if (filters != null) {
+                filters.put(toHex(id), filter);
+            }
+            good = in.position();
+        }
+        return good;
+    }
+
+    /** Returns the CRC-32 of the first LEN bytes of BYTES.
+     * @param bytes holds a record.
+     * @param len is the number of bytes covered. */
+    private static int checksum(byte[] bytes, int len) {
+        return checksum(bytes, 0, len);
+    }
+
+    /** Returns the CRC-32 of the LEN bytes of BYTES from START.
+     * @param bytes holds records.
+     * @param start is where the bytes covered start.
+     * @param len is the number of bytes covered. */
+    private static int checksum(byte[] bytes, int start, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, start, len);
+        return (int) crc.getValue();
+    }
+
+    /** Drops the filters of the commits whose hashes are not in IDS, as
+     *  after commits are removed, rewriting the file.
+     * @param ids are the full hashes of the commits to keep. */
+    void retain(Set<String> ids) {
+        load();
+        _filters.keySet().retainAll(ids);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(ByteBuffer.allocate(Integer.BYTES).putInt(MAGIC)
+                       .array());
+        for (Map.Entry<String, byte[]> e : _filters.entrySet()) {
+            out.writeBytes(record(toBytes(e.getKey()), e.getValue()));
+        }
+        writeAtomically(_file, join(_file.getParentFile(), ObjectStore.TMP),
+                        out.toByteArray());
+    }
+
+    /** Returns false if PATH is certainly not among the paths of FILTER.
+     * @param filter is the filter of a commit.
+     * @param path is the path of a file or directory. */
+    static boolean mightContain(byte[] filter, String path) {
+        if (filter.length == 0) {
+            return true;
+        }
+        long[] h = hashes(path);
+        for (int i = 0; i < HASHES; i += 1) {
+            int bit = bit(h, i, filter.length);
+            if ((filter[bit / Byte.SIZE] & (1 << (bit % Byte.SIZE))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the two independent hashes of PATH from which its bits are
+     *  chosen.
+     * @param path is the path of a file or directory. */
+    private static long[] hashes(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        int fnv = FNV_BASIS;
+        for (byte b : bytes) {
+            fnv = (fnv ^ (b & 0xff)) * FNV_PRIME;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return new long[] {fnv & INT_MASK, crc.getValue() | 1};
+    }
+
+    /** Returns the Ith bit chosen by the hashes H in a filter of LEN bytes.
+     * @param h are the hashes of a path.
+     * @param i is the number of the hash.
+     * @param len is the length of the filter. */
+    private static int bit(long[] h, int i, int len) {
+        return (int) ((h[0] + i * h[1]) % ((long) len * Byte.SIZE));
+    }
+
+    /** Reads the file, if that has not been done yet. */
+    private void load() {
+        if (_filters != null) {
+            return;
+        }
+        _filters = new HashMap<>();
+        if (!_file.isFile()) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(readContents(_file));
+        if (in.remaining() >= Integer.BYTES && in.getInt() == MAGIC) {
+            scan(in, _filters);
+        }
+    }
+}
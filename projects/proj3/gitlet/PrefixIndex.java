@@ -0,0 +1,278 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static gitlet.Utils.*;
+
+/** A table of all commit ids, for resolving abbreviated ids. The file is
+ *  the number N of sorted entries followed by N binary hashes in sorted
+ *  order and then by at most MAX_TAIL hashes in the order the commits
+ *  were made. New commits are appended to the tail, and the whole table
+ *  is re-sorted once the tail is full, so a commit costs a small append
+ *  and a lookup is a binary search plus a scan of the short tail. The
+ *  sorted table is replaced in one step when it is rewritten; an entry
+ *  cut short by an interrupted append is dropped when the file is read,
+ *  and a file that makes no sense is built again from the object store.
+ *  @author Jacky Zhao
+ */
+class PrefixIndex {
+    /** Largest number of unsorted entries kept at the end of the file. */
+    private static final int MAX_TAIL = 64;
+    /** Bytes in a binary hash. */
+    private static final int ID = PackFile.ID_BYTES;
+
+    /** The index file. */
+    private final File _file;
+    /** Folder of the files being written. */
+    private final File _tmp;
+    /** The contents of the file, or null if not yet read. */
+    private byte[] _table;
+    /** Number of sorted entries at the start of the table. */
+    private int _sorted;
+    /** Total number of entries. */
+    private int _size;
+
+    /** An index stored in FILE.
+     * @param file is the index file. */
+    PrefixIndex(File file) {
+        _file = file;
+        _tmp = join(file.getParentFile(), ObjectStore.TMP);
+    }
+
+    /** Returns up to LIMIT full ids of commits whose ids start with the
+     *  hexadecimal PREFIX, in no particular order.
+     * @param prefix is an abbreviated commit id.
+     * @param limit is the largest number of ids wanted. */
+    List<String> matches(String prefix, int limit) {
+        ArrayList<String> result = new ArrayList<>();
+        if (prefix.isEmpty() || prefix.length() > UID_LENGTH
+            || !prefix.matches("[0-9a-f]+")) {
+            return result;
+        }
+        load();
+        byte[] low = toBytes(pad(prefix));
+        int lo = 0, hi = _sorted;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, low) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int k = lo; k < _sorted && result.size() < limit
+                 && hasPrefix(k, prefix); k += 1) {
+            result.add(id(k));
+        }
+        for (int k = _sorted; k < _size && result.size() < limit; k += 1) {
+            if (hasPrefix(k, prefix) && !result.contains(id(k))) {
+                result.add(id(k));
+            }
+        }
+        return result;
+    }
+
+    /** Adds the commit id ID to the index. If the index has not been read
+     *  and its tail is not full, ID is appended after reading just the
+     *  count at the start of the file, without checking whether it is
+     *  there already; a repeated id is dropped when the table is sorted.
+     * @param id is the full hash of a new commit. */
+    void add(String id) {
+        if (_table == null && appendUnread(id)) {
+            return;
+        }
+        if (!matches(id, 1).isEmpty()) {
+            return;
+        }
+        if (_size - _sorted >= MAX_TAIL) {
+            rebuild(Arrays.copyOf(_table, Integer.BYTES + _size * ID));
+        }
+        try {
+            Files.write(_file.toPath(), toBytes(id),
+                    StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw error("Cannot write commit index: %s", excp.getMessage());
+        }
+        _table = null;
+    }
+
+    /** Appends ID to the file, which has not been read, and returns true
+     *  if the file holds whole entries and has room in its tail. Returns
+     *  false, and does nothing, otherwise.
+     * @param id is the full hash of a new commit. */
+    private boolean appendUnread(String id) {
+        if (!_file.isFile()) {
+            return false;
+        }
+        try (RandomAccessFile f = new RandomAccessFile(_file, "rw")) {
+            long len = f.length();
+            if (len < Integer.BYTES || (len - Integer.BYTES) % ID != 0
+                || (len - Integer.BYTES) / ID - f.readInt() >= MAX_TAIL) {
+                return false;
+            }
+            f.seek(len);
+            f.write(toBytes(id));
+            return true;
+        } catch (IOException excp) {
+            throw error("Cannot write commit index: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the full ids of the commits whose ids come after the full
+     *  id AFTER, or of all commits if AFTER is null, in order. The ids are
+     *  made one at a time as they are asked for, from the table of binary
+     *  hashes, so they need not all be in memory as strings at once.
+     * @param after is the id to start after, or null. */
+    Iterator<String> after(String after) {
+        load();
+        if (_sorted < _size) {
+            rebuild(_table);
+            _table = null;
+            load();
+        }
+        int lo = 0, hi = _size;
+        if (after != null) {
+            byte[] key = toBytes(after);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(mid, key) <= 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+        }
+        byte[] table = _table;
+        int first = lo, size = _size;
+        return new Iterator<String>() {
+            /** The entry of the next id. */
+            private int _next = first;
+
+            @Override
+            public boolean hasNext() {
+                return _next < size;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int start = Integer.BYTES + _next * ID;
+                _next += 1;
+                return toHex(Arrays.copyOfRange(table, start, start + ID));
+            }
+        };
+    }
+
+    /** Throws away the index, so that it is built again from the object
+     *  store when next used, as after objects are removed. */
+    void clear() {
+        _file.delete();
+        _table = null;
+    }
+
+    /** Reads the file, creating it from the object store if it does not
+     *  exist yet or its count is wrong, and rewriting it without a partial
+     *  entry at its end. */
+    private void load() {
+        if (_table != null) {
+            return;
+        }
+        if (!_file.isFile()) {
+            ByteArrayOutputStream all = new ByteArrayOutputStream();
+            all.writeBytes(new byte[Integer.BYTES]);
+            for (String id : Gitlet.OBJECTS.ids(ObjectStore.COMMIT)) {
+                all.writeBytes(toBytes(id));
+            }
+            rebuild(all.toByteArray());
+        }
+        _table = readContents(_file);
+        int whole = (_table.length - Integer.BYTES) / ID;
+        int sorted = _table.length < Integer.BYTES
+            ? -1 : ByteBuffer.wrap(_table).getInt();
+        if (sorted < 0 || sorted > whole) {
+            clear();
+            load();
+            return;
+        } else if ((_table.length - Integer.BYTES) % ID != 0) {
+            rebuild(Arrays.copyOf(_table, Integer.BYTES + whole * ID));
+            _table = null;
+            load();
+            return;
+        }
+        _sorted = sorted;
+        _size = whole;
+    }
+
+    /** Writes the entries in TABLE, which is laid out like the file, as a
+     *  fully sorted table without repeated entries.
+     * @param table holds a count followed by binary hashes. */
+    private void rebuild(byte[] table) {
+        int n = (table.length - Integer.BYTES) / ID;
+        byte[][] ids = new byte[n][];
+        for (int k = 0; k < n; k += 1) {
+            int start = Integer.BYTES + k * ID;
+            ids[k] = Arrays.copyOfRange(table, start, start + ID);
+        }
+        Arrays.sort(ids, Arrays::compareUnsigned);
+        int distinct = 0;
+        for (int k = 0; k < n; k += 1) {
+            if (distinct == 0 || !Arrays.equals(ids[k], ids[distinct - 1])) {
+                ids[distinct] = ids[k];
+                distinct += 1;
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(Integer.BYTES + distinct * ID);
+        out.putInt(distinct);
+        for (int k = 0; k < distinct; k += 1) {
+            out.put(ids[k]);
+        }
+        writeAtomically(_file, _tmp, out.array());
+    }
+
+    /** Returns the full id of entry K.
+     * @param k is an entry number. */
+    private String id(int k) {
+        int start = Integer.BYTES + k * ID;
+        return toHex(Arrays.copyOfRange(_table, start, start + ID));
+    }
+
+    /** Compares entry K with the binary hash KEY as unsigned bytes.
+     * @param k is an entry number.
+     * @param key is a binary hash. */
+    private int compare(int k, byte[] key) {
+        int start = Integer.BYTES + k * ID;
+        return Arrays.compareUnsigned(_table, start, start + ID,
+                key, 0, ID);
+    }
+
+    /** Returns true if the id of entry K starts with PREFIX.
+     * @param k is an entry number.
+     * @param prefix is an abbreviated commit id. */
+    private boolean hasPrefix(int k, String prefix) {
+        return id(k).startsWith(prefix);
+    }
+
+    /** Returns PREFIX padded with zeros to a full id, which is the
+     *  smallest id that starts with PREFIX.
+     * @param prefix is an abbreviated commit id. */
+    private static String pad(String prefix) {
+        StringBuilder result = new StringBuilder(prefix);
+        while (result.length() < UID_LENGTH) {
+            result.append('0');
+        }
+        return result.toString();
+    }
+}
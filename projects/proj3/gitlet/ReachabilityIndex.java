@@ -0,0 +1,197 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** Bitmaps of the commits reachable from selected commits, indexed by
+ *  position in the commit graph, so that asking whether one commit is an
+ *  ancestor of another is a single bit test rather than a walk over
+ *  parents. A bitmap is made the first time a commit is asked about,
+ *  which in practice means branch tips, by walking back from the commit
+ *  only until reaching commits that have bitmaps of their own and taking
+ *  the union with theirs; so the bitmap of a tip that has moved on by a
+ *  few commits costs a walk over those few. The most recently used
+ *  bitmaps are kept, up to MAX_BITMAPS.
+ *
+ *  Parents come before their children in the graph, so a commit's own
+ *  position is the last bit of its bitmap, and a history without
+ *  branches is a single run of ones. The file is therefore a Codec.BITMAPS
+ *  encoding of the number of bitmaps and, for each, the commit's hash, the
+ *  number of runs and the length of each run, alternately of zeros and
+ *  ones, starting with zeros. The positions of a rebuilt graph differ, so
+ *  the bitmaps are thrown away with it; bitmaps whose last bit is not
+ *  their commit's position are taken as stale and dropped. The file is
+ *  replaced in one step when saved, and one that cannot be decoded is
+ *  likewise dropped, since the bitmaps can always be made again.
+ *  @author Jacky Zhao
+ */
+class ReachabilityIndex {
+    /** Largest number of bitmaps kept. */
+    private static final int MAX_BITMAPS = 64;
+
+    /** The bitmap file. */
+    private final File _file;
+    /** Folder of the files being written. */
+    private final File _tmp;
+    /** The graph whose positions the bitmaps use. */
+    private final CommitGraph _graph;
+    /** The bitmaps by commit hash, least recently used first, or null if
+     *  the file has not been read yet. */
+    private LinkedHashMap<String, BitSet> _bitmaps;
+
+    /** An index stored in FILE, of positions in GRAPH.
+     * @param file is the bitmap file.
+     * @param graph is the commit graph. */
+    ReachabilityIndex(File file, CommitGraph graph) {
+        _file = file;
+        _tmp = join(file.getParentFile(), ObjectStore.TMP);
+        _graph = graph;
+    }
+
+    /** Returns true if the commit with hash A is the commit with hash B or
+     *  one of its ancestors.
+     * @param a is the hash of the possible ancestor.
+     * @param b is the hash of the descendant. */
+    boolean isAncestor(String a, String b) {
+        int pa = _graph.position(a), pb = _graph.position(b);
+        if (pa == CommitGraph.NONE || pb == CommitGraph.NONE || pa > pb) {
+            return false;
+        }
+        return reach(pb).get(pa);
+    }
+
+    /** Returns the number of commits reachable from the commit with hash
+     *  ID, itself included, or 0 if there is no such commit.
+     * @param id is the hash of a commit. */
+    int count(String id) {
+        int k = _graph.position(id);
+        return k == CommitGraph.NONE ? 0 : reach(k).cardinality();
+    }
+
+    /** Throws away the bitmaps, as when the graph is rebuilt. */
+    void clear() {
+        _file.delete();
+        _bitmaps = null;
+    }
+
+    /** Returns the bitmap of the commits reachable from the commit at
+     *  position K, making and saving it if need be.
+     * @param k is a position in the graph. */
+    private BitSet reach(int k) {
+        load();
+        String id = _graph.id(k);
+        BitSet result = _bitmaps.get(id);
+        if (result != null) {
+            return result;
+        }
+        result = new BitSet(k + 1);
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        work.push(k);
+        while (!work.isEmpty()) {
+            int q = work.pop();
+            if (result.get(q)) {
+                continue;
+            }
+            BitSet known = _bitmaps.get(_graph.id(q));
+            if (known != null) {
+                result.or(known);
+                continue;
+            }
+            result.set(q);
+            for (int p : new int[] {_graph.parent(q),
+                                    _graph.mergeParent(q)}) {
+                if (p != CommitGraph.NONE && !result.get(p)) {
+                    work.push(p);
+                }
+            }
+        }
+        _bitmaps.put(id, result);
+        Iterator<String> eldest = _bitmaps.keySet().iterator();
+        while (_bitmaps.size() > MAX_BITMAPS) {
+            eldest.next();
+            eldest.remove();
+        }
+        save();
+        return result;
+    }
+
+    /** Reads the file, if that has not been done yet. A file that is
+     *  stale or cannot be decoded is removed, leaving no bitmaps. */
+    private void load() {
+        if (_bitmaps != null) {
+            return;
+        }
+        _bitmaps = new LinkedHashMap<>(16, 0.75f, true);
+        if (!_file.isFile()) {
+            return;
+        }
+        try {
+            decode(new Codec.Reader(readContents(_file), Codec.BITMAPS));
+        } catch (GitletException excp) {
+            _bitmaps.clear();
+            _file.delete();
+        }
+    }
+
+    /** Adds the bitmaps encoded in IN, throwing a GitletException if they
+     *  are not bitmaps of positions in the current graph.
+     * @param in reads the contents of the file. */
+    private void decode(Codec.Reader in) {
+        int size = _graph.size();
+        for (long n = in.readVarint(); n > 0; n -= 1) {
+            String id = in.readId();
+            BitSet bits = new BitSet();
+            int pos = 0;
+            boolean ones = false;
+            for (long r = in.readVarint(); r > 0; r -= 1) {
+                long len = in.readVarint();
+                if (len < 0 || len > size - pos) {
+                    throw error("Corrupted gitlet file.");
+                }
+                if (ones) {
+                    bits.set(pos, pos + (int) len);
+                }
+                pos += len;
+                ones = !ones;
+            }
+            if (bits.length() - 1 != _graph.position(id)) {
+                throw error("Stale reachability bitmaps.");
+            }
+            _bitmaps.put(id, bits);
+        }
+        in.finish();
+    }
+
+    /** Writes the bitmaps to the file. */
+    private void save() {
+        Codec.Writer out = new Codec.Writer(Codec.BITMAPS);
+        out.writeVarint(_bitmaps.size());
+        for (Map.Entry<String, BitSet> e : _bitmaps.entrySet()) {
+            BitSet bits = e.getValue();
+            List<Integer> runs = new ArrayList<>();
+            int pos = 0;
+            boolean ones = false;
+            while (pos < bits.length()) {
+                int next = ones ? bits.nextClearBit(pos)
+                    : bits.nextSetBit(pos);
+                runs.add(next - pos);
+                pos = next;
+                ones = !ones;
+            }
+            out.writeId(e.getKey());
+            out.writeVarint(runs.size());
+            for (int len : runs) {
+                out.writeVarint(len);
+            }
+        }
+        writeAtomically(_file, _tmp, out.toByteArray());
+    }
+}
@@ -0,0 +1,41 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/** Reading and writing branch references, the files that hold the id of
+ *  the commit at the front of a branch. A reference is written as a
+ *  Codec.REF encoding of the id; references written as a 40-digit
+ *  hexadecimal numeral by older versions are still read.
+ *  @author Jacky Zhao
+ */
+class Refs {
+
+    /** Returns the commit id held in the reference FILE.
+     * @param file is a branch file. */
+    static String read(File file) {
+        byte[] bytes = Gitlet.JOURNAL.read(file);
+        if (bytes.length > 0 && bytes[0] == Codec.REF) {
+            Codec.Reader in = new Codec.Reader(bytes, Codec.REF);
+            String id = in.readId();
+            in.finish();
+            return id;
+        }
+        return new String(bytes, StandardCharsets.UTF_8).trim();
+    }
+
+    /** Makes FILE a reference to the commit ID.
+     * @param file is a branch file.
+     * @param id is the full hash of a commit. */
+    static void write(File file, String id) {
+        Gitlet.JOURNAL.write(file, encode(id));
+    }
+
+    /** Returns the encoding of a reference to the commit ID.
+     * @param id is the full hash of a commit. */
+    static byte[] encode(String id) {
+        Codec.Writer out = new Codec.Writer(Codec.REF);
+        out.writeId(id);
+        return out.toByteArray();
+    }
+}
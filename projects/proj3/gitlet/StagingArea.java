@@ -1,13 +1,20 @@
 package gitlet;
 
+import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
 
 /** Creates a staging area for the commit.
  * @author Jacky Zhao
  * */
 public class StagingArea implements Serializable {
+    /** Version of the serialized form written by older versions, which
+     *  is still read. */
+    private static final long serialVersionUID = 7722414006196417137L;
     /** Tracks the Commits in the staging area with the string. */
     private HashMap<String, String> adding;
     /** Tracks the removed files in the staging area. */
@@ -62,4 +69,41 @@ public class StagingArea implements Serializable {
     public ArrayList<String> getRmFiles() {
         return removing;
     }
+
+    /** Returns the staging area saved in FILE, which holds its encode
+     * bytes as written through the Journal when a command finishes or, in
+     * older repositories, the object written by Utils.writeObject.
+     * @param file is the stage file. */
+    static StagingArea read(File file) {
+        byte[] bytes = readContents(file);
+        if (Codec.isJavaSerialized(bytes)) {
+            return deserialize(bytes, StagingArea.class);
+        }
+        Codec.Reader in = new Codec.Reader(bytes, Codec.STAGE);
+        StagingArea result = new StagingArea();
+        for (int n = (int) in.readVarint(); n > 0; n -= 1) {
+            String name = in.readString();
+            result.adding.put(name, in.readId());
+        }
+        for (int n = (int) in.readVarint(); n > 0; n -= 1) {
+            result.removing.add(in.readString());
+        }
+        in.finish();
+        return result;
+    }
+
+    /** Returns the Codec encoding of this staging area. */
+    byte[] encode() {
+        Codec.Writer out = new Codec.Writer(Codec.STAGE);
+        out.writeVarint(adding.size());
+        for (Map.Entry<String, String> e : adding.entrySet()) {
+            out.writeString(e.getKey());
+            out.writeId(e.getValue());
+        }
+        out.writeVarint(removing.size());
+        for (String name : removing) {
+            out.writeString(name);
+        }
+        return out.toByteArray();
+    }
 }
@@ -0,0 +1,195 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+
+import static gitlet.Utils.*;
+
+/** The blob hashes of working files together with the size, modification
+ *  time and file key (inode) each file had when it was hashed, as in the
+ *  index of Git. A file whose size, time and key have not changed is
+ *  assumed to have the same contents, so it need not be read again. The
+ *  cache may be used by several threads at once; files are hashed outside
+ *  its lock. The file is replaced in one step when saved, and since it is
+ *  only a cache, one that cannot be read is taken to be empty.
+ *  @author Jacky Zhao
+ */
+class StatCache {
+    /** Files modified this close (in milliseconds) to the time the cache
+     *  was saved may have been changed again within the same clock tick
+     *  after they were hashed, so they are always hashed again. */
+    private static final long RACY_WINDOW = 2000;
+
+    /** The stat data and hash of one working file. */
+    private static class Entry implements Serializable {
+        /** Fixed at the value computed for the first version, so that
+         *  existing cache files stay readable. */
+        private static final long serialVersionUID = 5870878040789338587L;
+
+        /** Size in bytes. */
+        private long size;
+        /** Modification time in milliseconds. */
+        private long mtime;
+        /** The file key, which on Unix holds the device and inode. */
+        private String key;
+        /** The SHA-1 hash of the contents. */
+        private String hash;
+    }
+
+    /** The stat data of all the files in the cache, with the time the
+     *  cache was saved. */
+    private static class Table implements Serializable {
+        /** Fixed at the value computed for the first version, so that
+         *  existing cache files stay readable. */
+        private static final long serialVersionUID = -8512401454782773802L;
+
+        /** Time the table was last saved, in milliseconds. */
+        private long saved;
+        /** Entries by file name. */
+        private HashMap<String, Entry> entries = new HashMap<>();
+    }
+
+    /** The cache file. */
+    private final File _file;
+    /** Folder of the files being written. */
+    private final File _tmp;
+    /** The cached data, or null if not yet read. */
+    private Table _table;
+    /** True if _table has changed since it was read. */
+    private boolean _changed;
+    /** Number of files whose hashes were found in the cache. */
+    private long _hits;
+    /** Number of files that had to be hashed. */
+    private long _misses;
+
+    /** A cache stored in FILE.
+     * @param file is the cache file. */
+    StatCache(File file) {
+        _file = file;
+        _tmp = join(file.getParentFile(), ObjectStore.TMP);
+    }
+
+    /** Returns the blob hash of the contents of FILE, whose name in the
+     *  working directory is NAME, reading the file only if its stat data
+     *  differs from the cached data.
+     * @param file is a working file.
+     * @param name is its name. */
+    String hash(File file, String name) {
+        BasicFileAttributes attrs = stat(file);
+        String hash = lookup(name, attrs);
+        if (hash == null) {
+            hash = sha1(file);
+            synchronized (this) {
+                _misses += 1;
+                record(name, attrs, hash);
+            }
+        }
+        return hash;
+    }
+
+    /** Returns the cached hash of NAME if its stat data is still ATTRS, or
+     *  null.
+     * @param name is the name of a working file.
+     * @param attrs are its attributes. */
+    private synchronized String lookup(String name,
+                                       BasicFileAttributes attrs) {
+        load();
+        Entry e = _table.entries.get(name);
+        if (e != null && e.size == attrs.size()
+            && e.mtime == attrs.lastModifiedTime().toMillis()
+            && e.key.equals(String.valueOf(attrs.fileKey()))
+            && e.mtime + RACY_WINDOW < _table.saved) {
+            _hits += 1;
+            return e.hash;
+        }
+        return null;
+    }
+
+    /** Notes that FILE, named NAME, has just been written with the contents
+     *  of the blob HASH.
+     * @param file is a working file.
+     * @param name is its name.
+     * @param hash is the hash of its contents. */
+    synchronized void update(File file, String name, String hash) {
+        load();
+        record(name, stat(file), hash);
+    }
+
+    /** Removes the entry for NAME, if any.
+     * @param name is the name of a working file. */
+    synchronized void forget(String name) {
+        load();
+        if (_table.entries.remove(name) != null) {
+            _changed = true;
+        }
+    }
+
+    /** Returns the number of files whose hashes were found in the
+     *  cache. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Returns the number of files that had to be hashed. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /** Writes the cache back if it has changed. */
+    synchronized void save() {
+        if (_changed) {
+            _table.saved = System.currentTimeMillis();
+            writeAtomically(_file, _tmp, serialize(_table));
+            _changed = false;
+        }
+    }
+
+    /** Records the stat data ATTRS and hash HASH for NAME.
+     * @param name is the name of a working file.
+     * @param attrs are its attributes.
+     * @param hash is the hash of its contents. */
+    private void record(String name, BasicFileAttributes attrs,
+                        String hash) {
+        Entry e = new Entry();
+        e.size = attrs.size();
+        e.mtime = attrs.lastModifiedTime().toMillis();
+        e.key = String.valueOf(attrs.fileKey());
+        e.hash = hash;
+        _table.entries.put(name, e);
+        _changed = true;
+    }
+
+    /** Returns the attributes of FILE.
+     * @param file is a working file. */
+    private static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Reads the cache, if that has not been done yet, starting with an
+     *  empty one if there is no file or it cannot be read. */
+    private void load() {
+        if (_table != null) {
+            return;
+        }
+        _table = new Table();
+        if (_file.isFile()) {
+            try {
+                Table table = readObject(_file, Table.class);
+                if (table.entries != null) {
+                    _table = table;
+                }
+            } catch (IllegalArgumentException excp) {
+                _changed = true;
+            }
+        }
+    }
+}
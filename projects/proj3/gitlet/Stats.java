@@ -0,0 +1,146 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counters of the work gitlet does, for finding out where a slow command
+ *  spends its time. The counters are bumped by the file, hashing and
+ *  object-store entry points in Utils and ObjectStore, possibly from
+ *  several threads at once, which costs a few additions whether or not
+ *  anyone looks; the wall time of each phase of a run (opening the
+ *  repository, each command, committing the journal) is only measured
+ *  when statistics are on. They are turned on by the --stats
+ *  option or by setting the environment variable GITLET_STATS, and are
+ *  then reported on the standard error when gitlet exits.
+ *  @author Jacky Zhao
+ */
+class Stats {
+    /** Name of the environment variable that turns statistics on. */
+    static final String ENV = "GITLET_STATS";
+    /** Nanoseconds in a millisecond. */
+    private static final double NANOS_PER_MILLI = 1e6;
+    /** Percent in one. */
+    private static final double PERCENT = 100;
+
+    /** True if statistics are being gathered. */
+    private static boolean _enabled = System.getenv(ENV) != null
+        && !System.getenv(ENV).isEmpty() && !System.getenv(ENV).equals("0");
+    /** Total nanoseconds of each phase, by name, in order of first use. */
+    private static final LinkedHashMap<String, Long> PHASES =
+        new LinkedHashMap<>();
+    /** Name of the current phase, or null. */
+    private static String _phase;
+    /** Time the current phase started, in nanoseconds. */
+    private static long _phaseStart;
+    /** Time statistics were turned on, in nanoseconds. */
+    private static long _start = System.nanoTime();
+
+    /** Bytes read from files. */
+    private static final LongAdder BYTES_READ = new LongAdder();
+    /** Bytes written to files. */
+    private static final LongAdder BYTES_WRITTEN = new LongAdder();
+    /** Objects read from the object store or deserialized. */
+    private static final LongAdder OBJECTS_READ = new LongAdder();
+    /** Objects written to the object store or serialized. */
+    private static final LongAdder OBJECTS_WRITTEN = new LongAdder();
+    /** SHA-1 hashes computed. */
+    private static final LongAdder SHA1S = new LongAdder();
+
+    /** Returns true if statistics are being gathered. */
+    static boolean enabled() {
+        return _enabled;
+    }
+
+    /** Starts gathering statistics. */
+    static void enable() {
+        if (!_enabled) {
+            _enabled = true;
+            _start = System.nanoTime();
+        }
+    }
+
+    /** Ends the current phase, if any, and starts the phase NAME. Phases
+     *  with the same name, as in a batch, are added together.
+     * @param name is the name of the phase, or null to end the current
+     *        one only. */
+    static void phase(String name) {
+        if (!_enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (_phase != null) {
+            PHASES.merge(_phase, now - _phaseStart, Long::sum);
+        }
+        _phase = name;
+        _phaseStart = now;
+    }
+
+    /** Counts N bytes read from files.
+     * @param n is the number of bytes. */
+    static void read(long n) {
+        BYTES_READ.add(n);
+    }
+
+    /** Counts N bytes written to files.
+     * @param n is the number of bytes. */
+    static void write(long n) {
+        BYTES_WRITTEN.add(n);
+    }
+
+    /** Counts an object read. */
+    static void readObject() {
+        OBJECTS_READ.increment();
+    }
+
+    /** Counts an object written. */
+    static void writeObject() {
+        OBJECTS_WRITTEN.increment();
+    }
+
+    /** Counts a SHA-1 hash. */
+    static void sha1() {
+        SHA1S.increment();
+    }
+
+    /** Prints the statistics gathered so far on OUT, ending the current
+     *  phase.
+     * @param out is where the report goes. */
+    static void report(PrintStream out) {
+        phase(null);
+        out.println("=== Stats ===");
+        for (Map.Entry<String, Long> e : PHASES.entrySet()) {
+            out.printf("time %-16s %10.3f ms%n", e.getKey(),
+                       e.getValue() / NANOS_PER_MILLI);
+        }
+        out.printf("time %-16s %10.3f ms%n", "total",
+                   (System.nanoTime() - _start) / NANOS_PER_MILLI);
+        out.printf("%-21s %10d%n", "bytes read", BYTES_READ.sum());
+        out.printf("%-21s %10d%n", "bytes written", BYTES_WRITTEN.sum());
+        out.printf("%-21s %10d%n", "objects read", OBJECTS_READ.sum());
+        out.printf("%-21s %10d%n", "objects written",
+                   OBJECTS_WRITTEN.sum());
+        out.printf("%-21s %10d%n", "sha1 hashes", SHA1S.sum());
+        hitRate(out, "commit cache", CommitLoader.CACHE.hits(),
+                CommitLoader.CACHE.misses());
+        hitRate(out, "tree cache", Tree.CACHE.hits(), Tree.CACHE.misses());
+        hitRate(out, "blob cache", Gitlet.OBJECTS.blobCache().hits(),
+                Gitlet.OBJECTS.blobCache().misses());
+        hitRate(out, "stat cache", Gitlet.STAT_CACHE.hits(),
+                Gitlet.STAT_CACHE.misses());
+    }
+
+    /** Prints the line of OUT for the cache NAME, which had HITS hits and
+     *  MISSES misses.
+     * @param out is where the report goes.
+     * @param name is the name of the cache.
+     * @param hits is the number of lookups that found their entry.
+     * @param misses is the number that did not. */
+    private static void hitRate(PrintStream out, String name, long hits,
+                                long misses) {
+        long total = hits + misses;
+        out.printf("%-21s %10d hits %10d misses %6.1f%%%n", name, hits,
+                   misses, total == 0 ? 0 : PERCENT * hits / total);
+    }
+}
@@ -0,0 +1,122 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/** The line-by-line merge of two versions of a file that were both changed
+ *  from a common base, in the manner of diff3. Each version is compared
+ *  with the base, and the changes of the two comparisons are taken in
+ *  order of their place in the base. A change that does not overlap or
+ *  touch a change of the other version is simply applied; where the two
+ *  versions change the same lines, the result is their common text if
+ *  they made the same change and a conflict otherwise.
+ *  @author Jacky Zhao
+ */
+class ThreeWayMerge {
+    /** Starts the current version's side of a conflict. */
+    static final byte[] OURS =
+        "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    /** Separates the two sides of a conflict. */
+    static final byte[] SEPARATOR =
+        "=======\n".getBytes(StandardCharsets.UTF_8);
+    /** Ends the given version's side of a conflict. */
+    static final byte[] THEIRS =
+        ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Writes the merge of OURS and THEIRS, both changed from BASE, to OUT,
+     *  with conflict markers around the lines both changed in different
+     *  ways. Returns true if there were no conflicts.
+     * @param base is the common version.
+     * @param ours is the current version.
+     * @param theirs is the given version.
+     * @param out is where the merged file goes. */
+    static boolean merge(byte[] base, byte[] ours, byte[] theirs,
+                         OutputStream out) throws IOException {
+        Diff.Lines o = new Diff.Lines(base);
+        Diff.Lines a = new Diff.Lines(ours);
+        Diff.Lines b = new Diff.Lines(theirs);
+        int[][] ids = Diff.number(o, a, b);
+        List<Diff.Hunk> ha = Diff.diff(ids[0], ids[1]);
+        List<Diff.Hunk> hb = Diff.diff(ids[0], ids[2]);
+        boolean clean = true;
+        int done = 0, i = 0, j = 0;
+        int shiftA = 0, shiftB = 0;
+        while (i < ha.size() || j < hb.size()) {
+            int lo = Math.min(i < ha.size() ? ha.get(i).aStart
+                              : Integer.MAX_VALUE,
+                              j < hb.size() ? hb.get(j).aStart
+                              : Integer.MAX_VALUE);
+            int hi = lo;
+            int i0 = i, j0 = j;
+            while (true) {
+                if (i < ha.size() && ha.get(i).aStart <= hi) {
+                    hi = Math.max(hi, ha.get(i).aEnd);
+                    i += 1;
+                } else if (j < hb.size() && hb.get(j).aStart <= hi) {
+                    hi = Math.max(hi, hb.get(j).aEnd);
+                    j += 1;
+                } else {
+                    break;
+                }
+            }
+            o.write(out, done, lo);
+            int[] sa = side(ha, i0, i, lo, hi, shiftA);
+            int[] sb = side(hb, j0, j, lo, hi, shiftB);
+            if (i == i0) {
+                b.write(out, sb[0], sb[1]);
+            } else if (j == j0 || Arrays.equals(ids[1], sa[0], sa[1],
+                                                ids[2], sb[0], sb[1])) {
+                a.write(out, sa[0], sa[1]);
+            } else {
+                clean = false;
+                out.write(OURS);
+                writeSide(out, a, sa);
+                out.write(SEPARATOR);
+                writeSide(out, b, sb);
+                out.write(THEIRS);
+            }
+            shiftA = sa[1] - hi;
+            shiftB = sb[1] - hi;
+            done = hi;
+        }
+        o.write(out, done, o.size());
+        return clean;
+    }
+
+    /** Returns the range {start, end} of lines of one version that stands
+     *  for base lines LO up to HI, given that the version's changes
+     *  HUNKS[FROM] to HUNKS[TO - 1] all lie in that range and that, before
+     *  it, the version's lines are SHIFT lines after the base's.
+     * @param hunks are the changes of the version.
+     * @param from is the first change in the range.
+     * @param to is just past the last change in the range.
+     * @param lo is the first base line.
+     * @param hi is just past the last base line.
+     * @param shift is the offset of the version's lines before LO. */
+    private static int[] side(List<Diff.Hunk> hunks, int from, int to,
+                              int lo, int hi, int shift) {
+        if (from == to) {
+            return new int[] {lo + shift, hi + shift};
+        }
+        Diff.Hunk first = hunks.get(from), last = hunks.get(to - 1);
+        return new int[] {first.bStart - (first.aStart - lo),
+                          last.bEnd + (hi - last.aEnd)};
+    }
+
+    /** Writes the lines RANGE of LINES, one side of a conflict, to OUT,
+     *  ending it with a newline so that the next marker starts a line.
+     * @param out is where the lines go.
+     * @param lines is a version.
+     * @param range is the range {start, end} of its lines. */
+    private static void writeSide(OutputStream out, Diff.Lines lines,
+                                  int[] range) throws IOException {
+        lines.write(out, range[0], range[1]);
+        if (range[1] == lines.size() && range[1] > range[0]
+            && !lines.endsWithNewline()) {
+            out.write('\n');
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package gitlet;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** A directory of a commit's snapshot, stored as an object named by the
+ *  hash of its contents, as in Git. A tree lists the blob of each file in
+ *  the directory and the tree of each subdirectory, by name, in order.
+ *  Since equal directories have equal hashes, a subtree that a commit does
+ *  not change is shared with its parent rather than copied, a new commit
+ *  only writes the trees on the paths to the files it changes, and two
+ *  snapshots can be compared without looking inside the subtrees they
+ *  share. Recently read trees are cached.
+ *  @author Jacky Zhao
+ */
+class Tree {
+    /** Separates the directories of a path. */
+    static final char SEPARATOR = '/';
+    /** Largest number of trees kept in memory. */
+    private static final int CACHE_ENTRIES = 4096;
+    /** Largest total size of the trees kept in memory. */
+    private static final long CACHE_BYTES = 1 << 24;
+    /** Recently read or written trees. Trees are not changed once
+     *  stored; update works on a copy. */
+    static final ObjectCache<Tree> CACHE =
+        new ObjectCache<>(CACHE_ENTRIES, CACHE_BYTES);
+
+    /** Blob hashes of the files in this directory, by name. */
+    private final TreeMap<String, String> _files = new TreeMap<>();
+    /** Tree hashes of the subdirectories of this directory, by name. */
+    private final TreeMap<String, String> _dirs = new TreeMap<>();
+
+    /** Returns the hash of the empty tree, storing it if need be. */
+    static String empty() {
+        return new Tree().store();
+    }
+
+    /** Returns the tree with hash ID.
+     * @param id is the full hash of the tree. */
+    static Tree load(String id) {
+        Tree t = CACHE.get(id);
+        if (t != null) {
+            return t;
+        }
+        byte[] bytes = Gitlet.OBJECTS.read(ObjectStore.TREE, id);
+        if (bytes == null) {
+            throw error("No tree %s.", id);
+        }
+        t = decode(bytes);
+        CACHE.put(id, t, bytes.length);
+        return t;
+    }
+
+    /** Returns the blob hashes of the files in this directory, by name. */
+    Map<String, String> files() {
+        return Collections.unmodifiableMap(_files);
+    }
+
+    /** Returns the tree hashes of the subdirectories, by name. */
+    Map<String, String> dirs() {
+        return Collections.unmodifiableMap(_dirs);
+    }
+
+    /** Returns the hash of the tree that results from applying CHANGES to
+     *  the tree ROOT, storing only the trees that change. CHANGES maps each
+     *  changed path to the hash of its new blob, or to null if the file is
+     *  removed. Directories left empty are dropped.
+     * @param root is the hash of a tree.
+     * @param changes are the changed files. */
+    static String apply(String root, SortedMap<String, String> changes) {
+        String result = update(root, changes);
+        return result == null ? empty() : result;
+    }
+
+    /** Returns the hash of the blob at PATH in the tree ROOT, or null if
+     *  there is no such file. Only the trees along PATH are read.
+     * @param root is the hash of a tree.
+     * @param path is the name of a file. */
+    static String get(String root, String path) {
+        Tree t = load(root);
+        int start = 0;
+        for (int end = path.indexOf(SEPARATOR); end >= 0;
+             end = path.indexOf(SEPARATOR, start)) {
+            String dir = t._dirs.get(path.substring(start, end));
+            if (dir == null) {
+                return null;
+            }
+            t = load(dir);
+            start = end + 1;
+        }
+        return t._files.get(path.substring(start));
+    }
+
+    /** Returns the hash of what is at PATH in the tree ROOT: the blob of a
+     *  file or the tree of a directory, or null if there is neither. Only
+     *  the trees along PATH are read.
+     * @param root is the hash of a tree.
+     * @param path is the name of a file or directory. */
+    static String lookup(String root, String path) {
+        Tree t = load(root);
+        int start = 0;
+        for (int end = path.indexOf(SEPARATOR); end >= 0;
+             end = path.indexOf(SEPARATOR, start)) {
+            String dir = t._dirs.get(path.substring(start, end));
+            if (dir == null) {
+                return null;
+            }
+            t = load(dir);
+            start = end + 1;
+        }
+        String name = path.substring(start);
+        String file = t._files.get(name);
+        return file != null ? file : t._dirs.get(name);
+    }
+
+    /** Returns the blob hashes of all files in the tree ROOT, by path.
+     * @param root is the hash of a tree. */
+    static HashMap<String, String> flatten(String root) {
+        HashMap<String, String> result = new HashMap<>();
+        flatten(root, "", result);
+        return result;
+    }
+
+    /** Returns the paths of the files whose blobs differ between the trees
+     *  A and B, each with its blob hash in A and in B (null where the file
+     *  is missing), in order of path. Subtrees with equal hashes are
+     *  skipped without being read.
+     * @param a is the hash of a tree.
+     * @param b is the hash of a tree. */
+    static TreeMap<String, String[]> diff(String a, String b) {
+        TreeMap<String, String[]> result = new TreeMap<>();
+        diff(a, b, "", result);
+        return result;
+    }
+
+    /** Returns the hash of the tree that results from applying CHANGES to
+     *  the tree ID, or null if that tree is empty.
+     * @param id is the hash of a tree, or null for an empty one.
+     * @param changes are the changed files, by path within the tree. */
+    private static String update(String id,
+                                 SortedMap<String, String> changes) {
+        Tree t = new Tree();
+        if (id != null) {
+            Tree old = load(id);
+            t._files.putAll(old._files);
+            t._dirs.putAll(old._dirs);
+        }
+        TreeMap<String, TreeMap<String, String>> below = new TreeMap<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf(SEPARATOR);
+            if (slash >= 0) {
+                below.computeIfAbsent(path.substring(0, slash),
+                                      k -> new TreeMap<>())
+                    .put(path.substring(slash + 1), e.getValue());
+            } else if (e.getValue() == null) {
+                t._files.remove(path);
+            } else {
+                t._files.put(path, e.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> e
+                 : below.entrySet()) {
+            String sub = update(t._dirs.get(e.getKey()), e.getValue());
+            if (sub == null) {
+                t._dirs.remove(e.getKey());
+            } else {
+                t._dirs.put(e.getKey(), sub);
+            }
+        }
+        if (t._files.isEmpty() && t._dirs.isEmpty()) {
+            return null;
+        }
+        return t.store();
+    }
+
+    /** Adds the files of the tree ID to RESULT, with PREFIX before each
+     *  name.
+     * @param id is the hash of a tree.
+     * @param prefix is the path of the tree.
+     * @param result collects the files. */
+    private static void flatten(String id, String prefix,
+                                Map<String, String> result) {
+        Tree t = load(id);
+        for (Map.Entry<String, String> e : t._files.entrySet()) {
+            result.put(prefix + e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, String> e : t._dirs.entrySet()) {
+            flatten(e.getValue(), prefix + e.getKey() + SEPARATOR, result);
+        }
+    }
+
+    /** Adds the differences between the trees A and B, whose path is
+     *  PREFIX, to RESULT.
+     * @param a is the hash of a tree, or null for an empty one.
+     * @param b is the hash of a tree, or null for an empty one.
+     * @param prefix is the path of the trees.
+     * @param result collects the differences. */
+    private static void diff(String a, String b, String prefix,
+                             Map<String, String[]> result) {
+        if (Objects.equals(a, b)) {
+            return;
+        }
+        Tree ta = a == null ? new Tree() : load(a);
+        Tree tb = b == null ? new Tree() : load(b);
+        TreeSet<String> names = new TreeSet<>(ta._files.keySet());
+        names.addAll(tb._files.keySet());
+        for (String name : names) {
+            String fa = ta._files.get(name), fb = tb._files.get(name);
+            if (!Objects.equals(fa, fb)) {
+                result.put(prefix + name, new String[] {fa, fb});
+            }
+        }
+        names = new TreeSet<>(ta._dirs.keySet());
+        names.addAll(tb._dirs.keySet());
+        for (String name : names) {
+            diff(ta._dirs.get(name), tb._dirs.get(name),
+                 prefix + name + SEPARATOR, result);
+        }
+    }
+
+    /** Stores this tree and returns its hash. */
+    private String store() {
+        byte[] bytes = encode();
+        String id = sha1(bytes);
+        Gitlet.OBJECTS.write(ObjectStore.TREE, id, bytes);
+        CACHE.put(id, this, bytes.length);
+        return id;
+    }
+
+    /** Returns the Codec encoding of this tree. */
+    private byte[] encode() {
+        Codec.Writer out = new Codec.Writer(Codec.TREE);
+        for (TreeMap<String, String> entries : List.of(_files, _dirs)) {
+            out.writeVarint(entries.size());
+            for (Map.Entry<String, String> e : entries.entrySet()) {
+                out.writeString(e.getKey());
+                out.writeId(e.getValue());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the tree whose Codec encoding is BYTES.
+     * @param bytes is the encoding. */
+    static Tree decode(byte[] bytes) {
+        Codec.Reader in = new Codec.Reader(bytes, Codec.TREE);
+        Tree result = new Tree();
+        for (TreeMap<String, String> entries
+                 : List.of(result._files, result._dirs)) {
+            for (int n = (int) in.readVarint(); n > 0; n -= 1) {
+                String name = in.readString();
+                entries.put(name, in.readId());
+            }
+        }
+        in.finish();
+        return result;
+    }
+}
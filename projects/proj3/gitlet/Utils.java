@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,12 +10,17 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
@@ -30,9 +36,13 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** Size of the buffers used to hash and copy files in pieces. */
+    static final int IO_CHUNK = 1 << 16;
+
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        Stats.sha1();
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
@@ -60,14 +70,43 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of the contents of FILE, which is read in
+     *  pieces of IO_CHUNK bytes, so the whole file is never in memory.
+     *  Gives the same result as sha1(readContents(FILE)).  Throws
+     *  IllegalArgumentException in case of problems. */
+    static String sha1(File file) {
+        Stats.sha1();
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteBuffer buf = ByteBuffer.allocateDirect(IO_CHUNK);
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                Stats.read(buf.remaining());
+                md.update(buf);
+                buf.clear();
+            }
+            return toHex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
      *  if FILE was deleted, and false otherwise.  Refuses to delete FILE
      *  and throws IllegalArgumentException unless the directory designated by
-     *  FILE also contains a directory named .gitlet. */
+     *  FILE, or one of the directories containing it, also contains a
+     *  directory named .gitlet. */
     static boolean restrictedDelete(File file) {
-        if (!(new File(file.getParentFile(), ".gitlet")).isDirectory()) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        while (dir != null && !(new File(dir, ".gitlet")).isDirectory()) {
+            dir = dir.getParentFile();
+        }
+        if (dir == null) {
             throw new IllegalArgumentException("not .gitlet working directory");
         }
         if (!file.isDirectory()) {
@@ -95,7 +134,9 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] result = Files.readAllBytes(file.toPath());
+            Stats.read(result.length);
+            return result;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -121,11 +162,10 @@ class Utils {
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                Stats.write(bytes.length);
             }
             str.close();
         } catch (IOException | ClassCastException excp) {
@@ -133,10 +173,132 @@ class Utils {
         }
     }
 
+    /** Copy the contents of FROM to TO, creating or overwriting TO as
+     *  needed, without reading the contents into memory.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void copyContents(File from, File to) {
+        try (FileChannel in = FileChannel.open(from.toPath(),
+                StandardOpenOption.READ)) {
+            try (FileChannel out = openForWrite(to)) {
+                transfer(in, 0, in.size(), out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the concatenation of the bytes in CONTENTS to FILE by way of
+     *  a new file in the directory TMP, which must be on the same file
+     *  system: the new file is forced to disk and then renamed to FILE in
+     *  one step, so that even after a crash FILE either is as before or
+     *  holds all of CONTENTS.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static void writeAtomically(File file, File tmp, byte[]... contents) {
+        Path t = tempFile(tmp);
+        try (FileChannel out = FileChannel.open(t,
+                StandardOpenOption.WRITE)) {
+            for (byte[] bytes : contents) {
+                ByteBuffer buf = ByteBuffer.wrap(bytes);
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                Stats.write(bytes.length);
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            t.toFile().delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        install(t, file);
+    }
+
+    /** Copy the contents of FROM to TO as writeAtomically does, by way of
+     *  a new file in the directory TMP, without reading the contents into
+     *  memory.  Throws IllegalArgumentException in case of problems. */
+    static void copyAtomically(File from, File to, File tmp) {
+        Path t = tempFile(tmp);
+        try (FileChannel in = FileChannel.open(from.toPath(),
+                 StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(t,
+                 StandardOpenOption.WRITE)) {
+            transfer(in, 0, in.size(), out);
+            out.force(true);
+        } catch (IOException excp) {
+            t.toFile().delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        install(t, to);
+    }
+
+    /** Force the entries of the directory DIR, such as files just renamed
+     *  into it, to disk.  Systems that cannot open a directory for this
+     *  make renames durable by themselves, so failure is ignored. */
+    static void syncDirectory(File dir) {
+        try (FileChannel ch = FileChannel.open(dir.toPath(),
+                StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Return a new, empty file in the directory TMP, creating TMP if
+     *  need be.  Unlike Files.createTempFile, this gives the file the
+     *  usual permissions, which the renamed file keeps. */
+    private static Path tempFile(File tmp) {
+        tmp.mkdirs();
+        try {
+            return File.createTempFile("write", null, tmp).toPath();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Rename the complete file T to FILE in one step, replacing FILE if
+     *  it exists, and force the rename to disk. */
+    private static void install(Path t, File file) {
+        try {
+            Files.move(t, file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            t.toFile().delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        syncDirectory(file.getAbsoluteFile().getParentFile());
+    }
+
+    /** Return a channel that writes FILE from the start, creating or
+     *  truncating it as needed.  Throws IllegalArgumentException if FILE
+     *  is a directory. */
+    static FileChannel openForWrite(File file) throws IOException {
+        if (file.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /** Copy COUNT bytes starting at POSITION in IN to OUT. */
+    static void transfer(FileChannel in, long position, long count,
+                         WritableByteChannel out) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long n = in.transferTo(position + done, count - done, out);
+            if (n <= 0 && position + done >= in.size()) {
+                throw new IOException("unexpected end of file");
+            }
+            done += n;
+        }
+        Stats.read(count);
+        Stats.write(count);
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        Stats.readObject();
         try {
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
@@ -206,6 +368,7 @@ class Utils {
 
     /** Returns a byte array containing the serialized contents of OBJ. */
     static byte[] serialize(Serializable obj) {
+        Stats.writeObject();
         try {
             ByteArrayOutputStream stream = new ByteArrayOutputStream();
             ObjectOutputStream objectStream = new ObjectOutputStream(stream);
@@ -217,6 +380,24 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        Stats.readObject();
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /* MESSAGES AND ERROR REPORTING */
 
     /** Return a GitletException whose message is composed from MSG and ARGS as
@@ -233,16 +414,33 @@ class Utils {
     }
 
     /* HELPER FUNCTIONS. */
+    /** Returns the bytes of the hexadecimal numeral HEX, which has an even
+     * number of digits.
+     * @param hex is the numeral. */
+    static byte[] toBytes(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) Integer.parseInt(
+                    hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** Returns BYTES as a lowercase hexadecimal numeral.
+     * @param bytes are the bytes to convert. */
+    static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
     /** Returns if the file is tracked in the current commit.
      * @param c is the commit.
      * @param name is the name of the file. */
     static boolean isTracked(Commit c, String name) {
-        ArrayList<String> files = new ArrayList<>(c.getTracking().keySet());
-        for (String s: files) {
-            if (s.equals(name)) {
-                return true;
-            }
-        }
-        return false;
+        return c.get(name) != null;
     }
 }
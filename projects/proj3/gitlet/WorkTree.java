@@ -0,0 +1,171 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/** The files of the working directory, found by walking directories and
+ *  hashed and stored many at a time, for adding a whole tree in one
+ *  command. Hashing a file and storing it as a blob mostly wait on the
+ *  disk, so both are done by a fork/join pool of at most THREADS threads
+ *  (unless set in the config, as many as for Checkout), which splits the
+ *  files in halves until each task has at most LEAF files. A blob is
+ *  stored once however many files have its contents, and only if it
+ *  differs from the version in the current commit, which serves as the
+ *  base of a delta where deltas are on.
+ *  @author Jacky Zhao
+ */
+class WorkTree {
+    /** Config key of the largest number of threads hashing files. */
+    static final String THREADS = "add.threads";
+    /** Largest number of files handled by one task without splitting. */
+    private static final int LEAF = 16;
+
+    /** The working directory. */
+    private final File _dir;
+
+    /** The working files under DIR.
+     * @param dir is the working directory. */
+    WorkTree(File dir) {
+        _dir = dir;
+    }
+
+    /** Returns the paths of the files at PATH, which is a file or a
+     *  directory, in order, or null if there is no such file in the
+     *  working tree. The .gitlet folder is skipped, and a path in it or
+     *  outside the working directory is taken not to exist. Paths are
+     *  normalized first, so that "." and ".." parts cannot hide them.
+     * @param path is a path relative to the working directory. */
+    TreeSet<String> list(String path) {
+        Path top = path(join(_dir, path).toPath());
+        Path gitlet = path(Gitlet.GITLET_FOLDER.toPath());
+        TreeSet<String> result = new TreeSet<>();
+        if (!top.startsWith(path(_dir.toPath())) || top.startsWith(gitlet)) {
+            return null;
+        } else if (Files.isRegularFile(top)) {
+            result.add(name(top));
+            return result;
+        } else if (!Files.isDirectory(top)) {
+            return null;
+        }
+        try (Stream<Path> paths = Files.walk(top)) {
+            paths.filter(p -> !p.startsWith(gitlet) && Files.isRegularFile(p))
+                .forEach(p -> result.add(name(p)));
+        } catch (IOException excp) {
+            throw error("Cannot list %s: %s", path, excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Returns the blob hashes of the files NAMES, by name, storing those
+     *  that differ from their versions in the commit HEAD. The hashes go
+     *  through the stat cache, which is saved.
+     * @param names are the paths of working files.
+     * @param head is the current commit. */
+    TreeMap<String, String> store(List<String> names, Commit head) {
+        ConcurrentHashMap<String, String> hashes = new ConcurrentHashMap<>();
+        ConcurrentHashMap<String, String> blobs = new ConcurrentHashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1,
+                Math.min(names.size(), Checkout.threads(THREADS))));
+        try {
+            pool.invoke(new Each(names, 0, names.size(), name -> {
+                String hash = Gitlet.STAT_CACHE.hash(join(_dir, name), name);
+                hashes.put(name, hash);
+                if (!hash.equals(head.get(name))) {
+                    blobs.putIfAbsent(hash, name);
+                }
+            }));
+            List<String> fresh = new ArrayList<>(blobs.keySet());
+            pool.invoke(new Each(fresh, 0, fresh.size(), hash -> {
+                String name = blobs.get(hash);
+                Gitlet.OBJECTS.writeBlob(hash, join(_dir, name),
+                                         head.get(name));
+            }));
+        } finally {
+            pool.shutdown();
+            Gitlet.STAT_CACHE.save();
+        }
+        return new TreeMap<>(hashes);
+    }
+
+    /** Returns the name of the file at PATH relative to the working
+     *  directory, with Tree.SEPARATOR between its parts.
+     * @param path is the path of a file in the working directory. */
+    private String name(Path path) {
+        Path rel = path(_dir.toPath()).relativize(path(path));
+        StringBuilder result = new StringBuilder();
+        for (Path part : rel) {
+            if (result.length() > 0) {
+                result.append(Tree.SEPARATOR);
+            }
+            result.append(part);
+        }
+        return result.toString();
+    }
+
+    /** Returns PATH made absolute and normalized.
+     * @param path is a path of a file. */
+    private static Path path(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    /** A task applying an action to a range of a list, split in halves
+     *  until small enough. */
+    private static class Each extends RecursiveAction {
+        /** Fixed so that tasks can be serialized, as RecursiveAction is. */
+        private static final long serialVersionUID = 1L;
+
+        /** The list. */
+        private final List<String> _items;
+        /** Start of the range. */
+        private final int _from;
+        /** End of the range, exclusive. */
+        private final int _to;
+        /** The action. */
+        private final transient Consumer<String> _action;
+
+        /** Returns PATH made absolute and normalized.
+     * @param path is a path of a file. */
+    private static Path path(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    /** A task applying ACTION to ITEMS from FROM up to TO.
+         * @param items is the list.
+         * @param from is the start of the range.
+         * @param to is its end, exclusive.
+         * @param action is what is done to each item. */
+        Each(List<String> items, int from, int to, Consumer<String> action) {
+            _items = items;
+            _from = from;
+            _to = to;
+            _action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (_to - _from <= LEAF) {
+                for (int i = _from; i < _to; i += 1) {
+                    _action.accept(_items.get(i));
+                }
+            } else {
+                int mid = (_from + _to) >>> 1;
+                invokeAll(new Each(_items, _from, mid, _action),
+                          new Each(_items, mid, _to, _action));
+            }
+        }
+    }
+}